@@ -0,0 +1,84 @@
+package application;
+
+import application.gamedata.GameConfig;
+import application.messages.Message;
+import application.messages.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents JMH benchmark of encoding and decoding of messages by {@link MessageCodec}.
+ * <p>
+ * Messages of every kind are taken by {@link MessageBenchmark#sampleMessages(GameState)} from a game
+ * on a square field of side {@code side} with {@code snakes} snakes, which has made {@link #WARMUP_TURNS} turns.
+ * Time is measured in nanoseconds per operation, and allocation per operation is reported by the GC profiler
+ * of {@code gradle jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MessageCodecBenchmark {
+
+    private static final int WARMUP_TURNS = 500;
+
+    @Param({"state", "delta", "steer", "ack", "announcement"})
+    public String message;
+
+    @Param({"100"})
+    public int side;
+
+    @Param({"20"})
+    public int snakes;
+
+    private Message decoded;
+    private ByteBuffer buf;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void prepare(){
+        GameConfig defaults = new GameConfig();
+        GameConfig config = new GameConfig(side, side, defaults.foodStatic, defaults.foodPerPlayer,
+                defaults.iterationDelayMs, defaults.deadFoodProb, defaults.pingDelayMs, defaults.nodeTimeoutMs);
+        SimulatedGame game = new SimulatedGame(config, snakes, side);
+        for(int i = 0; i < WARMUP_TURNS; i++){
+            game.turn();
+        }
+        decoded = MessageBenchmark.sampleMessages(game.state).get(message);
+        if(decoded == null)
+            throw new IllegalArgumentException("Unknown message " + message);
+        buf = ByteBuffer.allocate(MessageCodec.MAX_MESSAGE_SIZE);
+        MessageCodec.encode(decoded, buf);
+        buf.flip();
+        encoded = ByteBuffer.allocate(buf.remaining());
+        encoded.put(buf);
+        encoded.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encode(){
+        buf.clear();
+        MessageCodec.encode(decoded, buf);
+        return buf;
+    }
+
+    @Benchmark
+    public Message decode() throws StreamCorruptedException {
+        return MessageCodec.decode(encoded.duplicate());
+    }
+}
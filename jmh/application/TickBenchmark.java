@@ -0,0 +1,76 @@
+package application;
+
+import application.gamedata.Coord;
+import application.gamedata.GameConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents JMH benchmark of the turn of master, {@link GameState#changeState()},
+ * and of placement of a new snake, {@link GameState#findSuitableCoord()}.
+ * <p>
+ * Every combination of square field side, number of snakes and food per player is measured in turns per second.
+ * Every iteration plays a new {@link SimulatedGame}, after {@link #SETTLE_TURNS} turns, so that snakes
+ * do not grow from one iteration to another. It is run by {@code gradle jmh}, which reports allocation
+ * per turn by the GC profiler and keeps results in {@code build/results/jmh/results.csv}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TickBenchmark {
+
+    /**
+     * Number of turns, after which snakes of a new game are spawned and start moving
+     */
+    private static final int SETTLE_TURNS = 100;
+
+    @Param({"40", "100", "300"})
+    public int side;
+
+    @Param({"1", "10", "100"})
+    public int snakes;
+
+    @Param({"1", "10"})
+    public double food;
+
+    private SimulatedGame game;
+
+    @Setup(Level.Iteration)
+    public void startGame(){
+        GameConfig defaults = new GameConfig();
+        GameConfig config = new GameConfig(side, side, defaults.foodStatic, food,
+                defaults.iterationDelayMs, defaults.deadFoodProb, defaults.pingDelayMs, defaults.nodeTimeoutMs);
+        if(!config.isWithinLimits())
+            throw new IllegalArgumentException("Config is out of limits: side " + side + ", food " + food);
+        game = new SimulatedGame(config, snakes, snakes * 31L + side);
+        for(int i = 0; i < SETTLE_TURNS; i++){
+            game.turn();
+        }
+    }
+
+    @Benchmark
+    public int turn(){
+        game.turn();
+        return game.state.getStateId();
+    }
+
+    @Benchmark
+    public Coord findSuitableCoord(){
+        return game.state.findSuitableCoord();
+    }
+}
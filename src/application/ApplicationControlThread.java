@@ -5,20 +5,29 @@ import application.enums.NodeRole;
 import application.enums.PlayerType;
 import application.gamedata.GameConfig;
 import application.gamedata.PlayerInfo;
-import application.graphics.Application;
 import application.messages.*;
+import application.metrics.ControlMetrics;
+import application.transport.ChunkedTransport;
 
 import java.io.*;
 import java.net.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * This class represents thread, which controls game process
+ * This class controls game process.
+ * <p>
+ * It receives datagrams of its channel and runs its timed tasks on the thread of a {@link NetworkLoop}.
  */
-public class ApplicationControlThread extends Thread {
+public class ApplicationControlThread implements NetworkLoop.Receiver {
     private final int myId;
     private int mySeq = 0;
     /**
@@ -26,37 +35,170 @@ public class ApplicationControlThread extends Thread {
      */
     private GameState currentState;
     /**
-     * Graphic application
+     * View, which shows the game to the player
      */
-    private final Application app;
+    private final GameView view;
 
     private NodeRole role;
     private boolean isThereDeputy = false;
-    private final MulticastSocket socket;
+    private final NetworkLoop loop;
+    private final DatagramChannel channel;
+    private final ChunkedTransport transport;
+    /**
+     * Metrics of the game, which are exported, while it is served
+     */
+    private final ControlMetrics metrics;
+    /**
+     * Id of the room, which the game is hosted in, on the master's channel
+     */
+    private final int roomId;
+    /**
+     * Initial size of encoding buffers. Buffers double, until a message fits,
+     * so that many games in one process do not take {@link MessageCodec#MAX_MESSAGE_SIZE} per buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /**
+     * Buffer, which every outgoing message is encoded into
+     */
+    private ByteBuffer sendBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    /**
+     * Buffers, which bodies of state messages are encoded into during a turn.
+     * Each body is encoded once and shared by all players, who receive it.
+     */
+    private final ArrayList<ByteBuffer> stateBodyBuffers = new ArrayList<>();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(MessageCodec.MAX_HEADER_SIZE);
 
-    private long lastAnnounce;
-    private long lastStateUpdate;
-    private final TreeMap<Integer, Long> lastPings = new TreeMap<>();
-    private final TreeMap<Integer, Long> lastRecvs = new TreeMap<>();
-    private final TreeMap<Integer, ArrayList<ResendablePacket>> resendableQueues = new TreeMap<>();
+    /**
+     * Number of times this node became master or stopped. Turn and announcement tasks of earlier terms stop.
+     */
+    private int masterTerm = 0;
+    private boolean stopped = false;
+    /**
+     * Action, which runs on the thread of the loop, once the game stops because of an unexpected error
+     */
+    private Runnable failureHandler;
+    private static final long ANNOUNCE_PERIOD_NANOS = 1_000_000_000L;
+    /**
+     * Time in {@link System#nanoTime()} units, when master makes the next turn.
+     * It advances by exactly one turn duration, so that turns do not drift.
+     */
+    private long nextTurnNanos;
+    /**
+     * Number of missed turns, which master makes back to back, before it skips the rest
+     */
+    private static final int MAX_CATCH_UP_TURNS = 3;
+    /**
+     * Part of a turn, which searches of robots may take on master
+     */
+    private static final int ROBOT_BUDGET_DIVISOR = 10;
+    private final RobotDriver robots = new RobotDriver();
+    /**
+     * Nodes, which this node exchanges messages with, by their ids
+     */
+    private final TreeMap<Integer, Peer> peers = new TreeMap<>();
+    /**
+     * Latest state id, acknowledged by each player.
+     * Players, absent here, receive full state instead of a difference.
+     */
+    private final TreeMap<Integer, Integer> ackedStates = new TreeMap<>();
+    private int lastPlayersSignature;
+
+    /**
+     * Every state with id divisible by this number is sent in full to all players
+     */
+    private static final int KEYFRAME_INTERVAL = 50;
 
     private Inet4Address masterAddr;
     private int masterPort;
     private int masterId;
 
-    private class ResendablePacket{
-        private final DatagramPacket packet;
-        private long lastSent;
+    /**
+     * Steers, sent to master, which are not yet seen in the latest state.
+     * Snake of this node is shown with them applied ahead of master's states.
+     */
+    private final ArrayDeque<PendingSteer> pendingSteers = new ArrayDeque<>();
+    private final ArrayList<Direction> predictedSteers = new ArrayList<>();
+    /**
+     * Smoothed round trip time of steers, which sets how many turns ahead snake of this node is predicted
+     */
+    private long steerRttNanos = 0;
+    private static final int MAX_PREDICTED_TURNS = 4;
+
+    private static class PendingSteer {
+        private final int seq;
+        private final Direction direction;
+        private final long sentNanos;
+        /**
+         * Id of the state, after which master applies the steer, or -1, until master acknowledges it
+         */
+        private int appliedAfter = -1;
+
+        private PendingSteer(int seq, Direction direction, long sentNanos) {
+            this.seq = seq;
+            this.direction = direction;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    /**
+     * This class represents another node, which this node exchanges messages with.
+     * Its timed tasks stop, once it is removed from {@link #peers}.
+     */
+    private class Peer{
+        private final int id;
+        private long lastPing;
+        private long lastRecv;
+        /**
+         * Seq of the next message to this peer.
+         * Messages to every peer are numbered separately, so that its unacknowledged messages fit a small window.
+         */
+        private int nextSeq;
+        private final ResendWindow<ResendablePacket> window = new ResendWindow<>();
+        /**
+         * Latest state packet and ping, sent to this peer. Each one supersedes the previous packet of its kind.
+         */
+        private ResendablePacket pendingState;
+        private ResendablePacket pendingPing;
+        private final LongAdder resends;
+
+        private Peer(int id) {
+            this.id = id;
+            lastPing = lastRecv = System.nanoTime();
+            nextSeq = mySeq;
+            resends = metrics.addPeer(id);
+        }
+
+        private boolean isRemoved(){
+            return peers.get(id) != this;
+        }
+    }
+
+    private class ResendablePacket implements ResendWindow.Entry {
+        private final ChunkedTransport.Outgoing packet;
         private final int seq;
+        /**
+         * Id of the state, carried by the packet, or -1
+         */
+        private final int stateId;
+        /**
+         * Whether the packet is acknowledged or no longer needed, so that it is not resent
+         */
+        private boolean released = false;
 
-        private ResendablePacket(DatagramPacket packet, int seq) {
+        private ResendablePacket(ChunkedTransport.Outgoing packet, int seq, int stateId) {
             this.packet = packet;
             this.seq = seq;
-            lastSent = System.currentTimeMillis();
+            this.stateId = stateId;
         }
 
-        private void updateLastSend(){
-            lastSent = System.currentTimeMillis();
+        @Override
+        public int seq() {
+            return seq;
+        }
+
+        @Override
+        public boolean isReleased() {
+            return released;
         }
     }
 
@@ -66,23 +208,48 @@ public class ApplicationControlThread extends Thread {
      * It initializes resources for network interaction
      * and determines starting state of the game.
      * @param gameConfig config, chosen by a player.
-     * @param app graphic application.
+     * @param view view of the game.
      */
-    public ApplicationControlThread(GameConfig gameConfig, Application app, MulticastSocket socket, String name) {
-        this.app = app;
-        this.socket = socket;
+    public ApplicationControlThread(GameConfig gameConfig, GameView view, NetworkLoop loop, DatagramChannel channel, String name) throws IOException {
+        this(gameConfig, view, loop, channel, name, true, 0);
+    }
+
+    /**
+     * This constructor is invoked to start a new game.
+     * @param masterPlays whether master has its own snake. Otherwise master only hosts the game.
+     * @param roomId id of the room, which the game is hosted in, if {@code channel} is shared by many games.
+     */
+    public ApplicationControlThread(GameConfig gameConfig, GameView view, NetworkLoop loop, DatagramChannel channel, String name,
+                                    boolean masterPlays, int roomId) throws IOException {
+        this.view = view;
+        this.loop = loop;
+        this.channel = channel;
+        this.roomId = roomId;
+        this.transport = new ChunkedTransport(channel, roomId);
+        this.metrics = new ControlMetrics(transport, ((InetSocketAddress) channel.getLocalAddress()).getPort(), roomId);
         myId = 0;
         role = NodeRole.MASTER;
-        PlayerInfo master = new PlayerInfo(name, myId, "", socket.getLocalPort(), NodeRole.MASTER, PlayerType.HUMAN);
-        currentState = new GameState(gameConfig, master);
-        app.paintState(currentState);
-        lastAnnounce = System.currentTimeMillis();
-        lastStateUpdate = lastAnnounce;
+        PlayerInfo master = new PlayerInfo(name, myId, "", ((InetSocketAddress) channel.getLocalAddress()).getPort(), NodeRole.MASTER, PlayerType.HUMAN);
+        currentState = new GameState(gameConfig, master, masterPlays);
+        publishState();
     }
 
-    public ApplicationControlThread(Application app, MulticastSocket socket, GameConfig config, Inet4Address masterAddr, int masterPort, int masterId, String name) throws IOException {
-        this.app = app;
-        this.socket = socket;
+    /**
+     * This constructor is invoked when player decided to join a game.
+     * <p>
+     * It sends join request to the master and waits for its answer.
+     * It must be invoked, while {@code channel} is not served by {@code loop}.
+     * @param roomId id of the room on the master's channel, which the game is hosted in.
+     * @throws SocketTimeoutException if master did not answer.
+     */
+    public ApplicationControlThread(GameView view, NetworkLoop loop, DatagramChannel channel, GameConfig config,
+                                    Inet4Address masterAddr, int masterPort, int masterId, int roomId, String name) throws IOException {
+        this.view = view;
+        this.loop = loop;
+        this.channel = channel;
+        this.roomId = roomId;
+        this.transport = new ChunkedTransport(channel, roomId);
+        this.metrics = new ControlMetrics(transport, ((InetSocketAddress) channel.getLocalAddress()).getPort(), roomId);
         role = NodeRole.NORMAL;
         currentState = new GameState(config, new PlayerInfo("Master", masterId, masterAddr.getHostAddress(), masterPort, NodeRole.MASTER, PlayerType.HUMAN));
 
@@ -95,252 +262,518 @@ public class ApplicationControlThread extends Thread {
                 false, name);
         sendPacket(message, masterAddr, masterPort, false);
 
-        byte[] buf = new byte[4096];
-        DatagramPacket recvPacket = new DatagramPacket(buf, 4096);
-        int recvAckTimeout = 1000;
-        long lastRead = System.currentTimeMillis();
+        ByteBuffer buf = ByteBuffer.allocateDirect(ChunkedTransport.MAX_DATAGRAM_SIZE);
+        long deadline = System.currentTimeMillis() + 1000;
 
-        Object recvObj = null;
-        try {
+        Message recvObj;
+        try (Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
             while (true) {
-                recvAckTimeout -= System.currentTimeMillis() - lastRead;
-                lastRead = System.currentTimeMillis();
-                socket.receive(recvPacket);
-                ByteArrayInputStream byteIn = new ByteArrayInputStream(buf);
-                ObjectInputStream objIn = new ObjectInputStream(byteIn);
-                socket.setSoTimeout(recvAckTimeout);
+                long recvAckTimeout = deadline - System.currentTimeMillis();
+                if (recvAckTimeout <= 0)
+                    throw new SocketTimeoutException("Could not join to the game");
+                selector.select(recvAckTimeout);
+                selector.selectedKeys().clear();
+                buf.clear();
+                SocketAddress sender = channel.receive(buf);
+                if (sender == null)
+                    continue;
+                buf.flip();
                 try {
-                    recvObj = objIn.readObject();
+                    ByteBuffer received = transport.receive(buf, sender);
+                    if (received == null)
+                        continue;
+                    recvObj = MessageCodec.decode(received);
                     if (recvObj.getClass() == AckMessage.class)
                         break;
                     else if(recvObj.getClass() == ErrorMessage.class)
-                        app.showErrorMessage(((ErrorMessage) recvObj).reason);
-                } catch (ClassNotFoundException e) {
+                        view.showErrorMessage(((ErrorMessage) recvObj).reason);
+                } catch (StreamCorruptedException e) {
                     continue;
                 }
             }
-        } catch(SocketTimeoutException e){
-            throw new IOException("Could not join to the game");
         }
 
         AckMessage answer = (AckMessage)recvObj;
         myId = answer.receiverId;
         this.masterId = answer.senderId;
+    }
 
+    /**
+     * Starts serving the game on the thread of the loop
+     */
+    public void start(){
+        execute(() -> {
+            loop.register(channel, this);
+            startServing();
+        });
+    }
 
-        lastAnnounce = System.currentTimeMillis();
-        lastStateUpdate = lastAnnounce;
-        lastPings.put(this.masterId, lastAnnounce);
-        lastRecvs.put(this.masterId, lastAnnounce);
+    /**
+     * Starts serving the game on the thread of the loop, while datagrams of the shared channel
+     * are passed to {@link #receive(ByteBuffer, SocketAddress)} on that thread by the owner of the channel
+     */
+    void startShared(){
+        execute(this::startServing);
+    }
 
-        int queueInitCapacity = (int)(2. / config.pingDelayMs + 2. / config.iterationDelayMs);
-        resendableQueues.put(this.masterId, new ArrayList<>(queueInitCapacity));
+    /**
+     * Leaves the game. Master passes its role to deputy, if there is one.
+     */
+    public void stop(){
+        execute(() -> {
+            stopServing();
+            loop.unregister(channel);
+        });
     }
 
-    private int processTimeoutTasks() throws IOException {
-        int minimalTimeout = 1000;
-        int currentTimeout;
-        if(role == NodeRole.MASTER) {
-            currentTimeout = (int) (1000 - (System.currentTimeMillis() - lastAnnounce));
-            if (currentTimeout <= 0) {
-                boolean canJoin = (currentState.findSuitableCoord() != null);
-                AnnouncementMessage message = new AnnouncementMessage(mySeq++, 0, 0,
-                        currentState.players.values().toArray(new PlayerInfo[0]),
-                        currentState.config, canJoin);
-                sendPacket(message, InetAddress.getByName("239.192.0.4"), 9192, false);
-                lastAnnounce = System.currentTimeMillis();
+    /**
+     * Leaves the game, which was started by {@link #startShared()}
+     */
+    void stopShared(){
+        execute(this::stopServing);
+    }
+
+    private void startServing(){
+        metrics.register();
+        if(role == NodeRole.MASTER)
+            startMasterTasks();
+        else
+            addPeer(masterId);
+    }
+
+    private void stopServing() throws IOException {
+        stopped = true;
+        masterTerm++;
+        try {
+            if(role == NodeRole.MASTER){
+                PlayerInfo deputy = null;
+                for(PlayerInfo player: currentState.players.values()){
+                    if(player.role == NodeRole.DEPUTY)
+                        deputy = player;
+                }
+                if(deputy != null){
+                    ChangeRoleMessage message = new ChangeRoleMessage(nextSeq(deputy.id), myId, deputy.id, null, NodeRole.MASTER);
+                    sendPacket(message, InetAddress.getByName(deputy.ipAddress), deputy.port, false);
+                }
             }
+        } finally {
+            removeAllPeers();
+            metrics.unregister();
         }
+    }
 
-        if(role == NodeRole.MASTER) {
-            currentTimeout = (int) (currentState.config.iterationDelayMs - (System.currentTimeMillis() - lastStateUpdate));
-            if (currentTimeout <= 0) {
-                currentState.changeState();
-                for (Integer playerId : currentState.players.keySet()) {
-                    if(playerId == myId)
-                        continue;
-                    StateMessage message = new StateMessage(mySeq++, myId, playerId, currentState);
-                    sendPacket(message, Inet4Address.getByName(currentState.players.get(playerId).ipAddress),
-                            currentState.players.get(playerId).port, true);
-                    lastPings.put(playerId, System.currentTimeMillis());
-                }
-                app.paintState(currentState);
+    /**
+     * Sets action, which runs on the thread of the loop, once the game stops because of an unexpected error.
+     * Without it, the error is shown by the view. It must be invoked before the game starts.
+     */
+    void onFailure(Runnable handler){
+        failureHandler = handler;
+    }
 
-                lastStateUpdate = System.currentTimeMillis();
-                currentTimeout = currentState.config.iterationDelayMs;
-            }
-            if (currentTimeout < minimalTimeout)
-                minimalTimeout = currentTimeout;
-        }
-
-        for(Map.Entry<Integer, Long> entry: lastPings.entrySet()){
-            currentTimeout = (int) (currentState.config.pingDelayMs - (System.currentTimeMillis() - entry.getValue()));
-            if(currentTimeout <= 0){
-                PingMessage message = new PingMessage(mySeq++, myId, entry.getKey());
-                sendPacket(message, InetAddress.getByName(currentState.players.get(entry.getKey()).ipAddress),
-                        currentState.players.get(entry.getKey()).port, true);
-                entry.setValue(System.currentTimeMillis());
-                currentTimeout = currentState.config.pingDelayMs;
+    /**
+     * Stops the game after an unexpected error in one of its tasks, so that other games of the loop go on
+     */
+    private void fail(Exception error){
+        if(stopped)
+            return;
+        try {
+            stopServing();
+        } catch (IOException | RuntimeException e) {
+            error.addSuppressed(e);
+        }
+        loop.unregister(channel);
+        System.err.println("Game of room " + roomId + " stopped by an error:");
+        error.printStackTrace();
+        if(failureHandler != null)
+            failureHandler.run();
+        else
+            view.showErrorMessage("Game stopped by an error: " + error);
+    }
+
+    /**
+     * Runs {@code task} on the thread of the loop, stopping the game, if it fails
+     */
+    private void execute(NetworkLoop.Action task){
+        loop.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
             }
-            if (currentTimeout < minimalTimeout)
-                minimalTimeout = currentTimeout;
-        }
-
-        for(Map.Entry<Integer, ArrayList<ResendablePacket>> entry: resendableQueues.entrySet()){
-            ArrayList<ResendablePacket> queue = entry.getValue();
-            for(ResendablePacket packet: queue){
-                currentTimeout = (int) (currentState.config.pingDelayMs - (System.currentTimeMillis() - packet.lastSent));
-                if(currentTimeout <= 0){
-                    socket.send(packet.packet);
-                    packet.updateLastSend();
-                    currentTimeout = currentState.config.pingDelayMs;
-                }
-                if (currentTimeout < minimalTimeout)
-                    minimalTimeout = currentTimeout;
+        });
+    }
+
+    /**
+     * Runs {@code task} at {@code deadline} on the thread of the loop, stopping the game, if it fails
+     */
+    private void schedule(long deadline, DeadlineQueue.Task task){
+        loop.schedule(deadline, now -> {
+            try {
+                task.run(now);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
             }
+        });
+    }
+
+    /**
+     * Starts making turns and announcing the game, once this node becomes master
+     */
+    private void startMasterTasks(){
+        int term = ++masterTerm;
+        long now = System.nanoTime();
+        nextTurnNanos = now + turnNanos();
+        schedule(nextTurnNanos, time -> makeDueTurns(term));
+        schedule(now + ANNOUNCE_PERIOD_NANOS, time -> announce(term, time));
+    }
+
+    private boolean isMasterTerm(int term){
+        return role == NodeRole.MASTER && term == masterTerm;
+    }
+
+    private void announce(int term, long now) throws IOException {
+        if(!isMasterTerm(term))
+            return;
+        boolean canJoin = currentState.canJoin();
+        AnnouncementMessage message = new AnnouncementMessage(mySeq++, 0, 0,
+                currentState.players.values().toArray(new PlayerInfo[0]),
+                currentState.config, canJoin, roomId);
+        sendPacket(message, InetAddress.getByName(JoinableGameReceiver.ANNOUNCE_GROUP), JoinableGameReceiver.ANNOUNCE_PORT, false);
+        schedule(now + ANNOUNCE_PERIOD_NANOS, time -> announce(term, time));
+    }
+
+    /**
+     * Starts exchanging messages with node {@code id}, replacing previous peer with the same id
+     */
+    private void addPeer(int id){
+        Peer peer = new Peer(id);
+        removePeer(id);
+        peers.put(id, peer);
+        schedule(peer.lastPing + pingNanos(), now -> pingPeer(peer, now));
+        schedule(peer.lastRecv + nodeTimeoutNanos(), now -> checkPeerTimeout(peer, now));
+    }
+
+    /**
+     * Stops exchanging messages with node {@code id}.
+     * Seqs, used for its messages, are not reused, if it becomes peer again.
+     */
+    private void removePeer(int id){
+        Peer peer = peers.remove(id);
+        if(peer == null)
+            return;
+        peer.window.forEachUnreleased(this::releasePacket);
+        mySeq = Math.max(mySeq, peer.nextSeq);
+        metrics.removePeer(id, peer.resends);
+    }
+
+    private void removeAllPeers(){
+        for(Peer peer: peers.values()){
+            peer.window.forEachUnreleased(packet -> {
+                packet.released = true;
+                metrics.resendReleased();
+            });
+            mySeq = Math.max(mySeq, peer.nextSeq);
         }
+        peers.clear();
+        metrics.removeAllPeers();
+        transport.releaseAll();
+    }
 
-        ArrayList<Integer> toRemove = new ArrayList<>(currentState.players.size());
-
-        for(Map.Entry<Integer, Long> entry: lastRecvs.entrySet()){
-            currentTimeout = (int) (currentState.config.nodeTimeoutMs - (System.currentTimeMillis() - entry.getValue()));
-            if(currentTimeout <= 0){
-                int id = entry.getKey();
-                PlayerInfo player = currentState.players.get(id);
-                if(role == NodeRole.NORMAL){
-                    lastPings.clear();
-                    lastRecvs.clear();
-                    resendableQueues.clear();
-                    PlayerInfo deputy = null;
-                    for(PlayerInfo gamer: currentState.players.values()){
-                        if(gamer.role == NodeRole.DEPUTY) {
-                            deputy = gamer;
-                            break;
-                        }
-                    }
-
-                    if(deputy == null || deputy.id == masterId ){
-                        System.exit(-1);
-                    }
-
-                    masterAddr = (Inet4Address) Inet4Address.getByName(deputy.ipAddress);
-                    masterPort = deputy.port;
-                    masterId = deputy.id;
-                    lastPings.put(masterId, System.currentTimeMillis());
-                    lastRecvs.put(masterId, System.currentTimeMillis());
-                    int queueInitCapacity = (int)(2. / currentState.config.pingDelayMs + 2. / currentState.config.iterationDelayMs);
-                    resendableQueues.put(masterId, new ArrayList<>(queueInitCapacity));
-                }
-                else if(role == NodeRole.DEPUTY){
-                    currentState.players.remove(masterId);
-                    currentState.setZombie(masterId);
-                    deputyReplaceMaster();
-                }
-                else if(role == NodeRole.MASTER){
-                    currentState.players.remove(id);
-                    currentState.setZombie(id);
-                    lastPings.remove(id);
-                    toRemove.add(id);
-                    resendableQueues.remove(id);
-                    if(player.role == NodeRole.DEPUTY){
-                        if(currentState.players.size() == 1){
-                            isThereDeputy = false;
-                        }
-                        else{
-                            PlayerInfo newDeputy;
-                            if(currentState.players.lastEntry().getValue().role == NodeRole.MASTER)
-                                newDeputy = currentState.players.firstEntry().getValue();
-                            else
-                                newDeputy = currentState.players.lastEntry().getValue();
-                            newDeputy.role = NodeRole.DEPUTY;
-                            ChangeRoleMessage message = new ChangeRoleMessage(mySeq++, myId, newDeputy.id, null, NodeRole.DEPUTY);
-                            sendPacket(message, InetAddress.getByName(newDeputy.ipAddress), newDeputy.port, true);
-                        }
-                    }
+    /**
+     * Returns seq for the next message to node {@code receiverId}
+     */
+    private int nextSeq(int receiverId){
+        Peer peer = peers.get(receiverId);
+        return peer == null ? mySeq++ : peer.nextSeq++;
+    }
+
+    /**
+     * Stops resending {@code packet}
+     */
+    private void releasePacket(ResendablePacket packet){
+        if(packet.released)
+            return;
+        packet.released = true;
+        metrics.resendReleased();
+        transport.release(packet.packet);
+    }
+
+    /**
+     * Pings {@code peer}, if nothing was sent to it for {@link GameConfig#pingDelayMs}
+     */
+    private void pingPeer(Peer peer, long now) throws IOException {
+        if(peer.isRemoved())
+            return;
+        long due = peer.lastPing + pingNanos();
+        if(now - due >= 0){
+            PlayerInfo player = currentState.players.get(peer.id);
+            PingMessage message = new PingMessage(peer.nextSeq++, myId, peer.id);
+            if(peer.pendingPing != null)
+                releasePacket(peer.pendingPing);
+            peer.pendingPing = sendPacket(message, InetAddress.getByName(player.ipAddress), player.port, true);
+            peer.lastPing = now;
+            due = now + pingNanos();
+        }
+        schedule(due, time -> pingPeer(peer, time));
+    }
+
+    private void resendPacket(Peer peer, ResendablePacket packet, long now) throws IOException {
+        if(packet.released)
+            return;
+        transport.resend(packet.packet);
+        metrics.packetResent(peer.resends);
+        schedule(now + pingNanos(), time -> resendPacket(peer, packet, time));
+    }
+
+    /**
+     * Processes timeout of {@code peer}, if nothing was received from it for {@link GameConfig#nodeTimeoutMs}
+     */
+    private void checkPeerTimeout(Peer peer, long now) throws IOException {
+        if(peer.isRemoved())
+            return;
+        long due = peer.lastRecv + nodeTimeoutNanos();
+        if(now - due < 0){
+            schedule(due, time -> checkPeerTimeout(peer, time));
+            return;
+        }
+        int id = peer.id;
+        PlayerInfo player = currentState.players.get(id);
+        if(role == NodeRole.NORMAL){
+            removeAllPeers();
+            PlayerInfo deputy = null;
+            for(PlayerInfo gamer: currentState.players.values()){
+                if(gamer.role == NodeRole.DEPUTY) {
+                    deputy = gamer;
+                    break;
                 }
             }
-            else if (currentTimeout < minimalTimeout)
-                minimalTimeout = currentTimeout;
+
+            if(deputy == null || deputy.id == masterId ){
+                stopServing();
+                loop.unregister(channel);
+                view.showErrorMessage("Master is lost and there is no deputy to replace it");
+                return;
+            }
+
+            masterAddr = (Inet4Address) Inet4Address.getByName(deputy.ipAddress);
+            masterPort = deputy.port;
+            masterId = deputy.id;
+            addPeer(masterId);
         }
+        else if(role == NodeRole.DEPUTY){
+            currentState.players.remove(masterId);
+            currentState.setZombie(masterId);
+            deputyReplaceMaster();
+        }
+        else if(role == NodeRole.MASTER){
+            currentState.players.remove(id);
+            currentState.setZombie(id);
+            removePeer(id);
+            if(player.role == NodeRole.DEPUTY)
+                appointDeputy();
+        }
+    }
+
+    /**
+     * Makes turns, which are due, and schedules the next one.
+     * If master falls behind by more than {@link #MAX_CATCH_UP_TURNS} turns, the rest of missed turns is skipped.
+     */
+    private void makeDueTurns(int term) throws IOException {
+        if(!isMasterTerm(term))
+            return;
+        long turnNanos = turnNanos();
+        int turnsMade = 0;
+        while(System.nanoTime() - nextTurnNanos >= 0 && turnsMade < MAX_CATCH_UP_TURNS){
+            long start = System.nanoTime();
+            robots.steer(currentState, turnNanos / ROBOT_BUDGET_DIVISOR);
+            currentState.changeState();
+            broadcastState();
+            metrics.turnMade(System.nanoTime() - start, start - nextTurnNanos);
+            nextTurnNanos += turnNanos;
+            turnsMade++;
+        }
+        if(turnsMade != 0)
+            publishState();
+        long now = System.nanoTime();
+        if(now - nextTurnNanos >= 0){
+            metrics.turnsSkipped((now - nextTurnNanos) / turnNanos + 1);
+            nextTurnNanos = now + turnNanos;
+        }
+        schedule(nextTurnNanos, time -> makeDueTurns(term));
+    }
+
+    /**
+     * Passes snapshot of the current state to the view, which reads it on its own thread
+     */
+    private void publishState(){
+        if(!view.paintsStates())
+            return;
+        if(role == NodeRole.MASTER || !currentState.snakes.containsKey(myId)) {
+            view.paintState(currentState.snapshot());
+            return;
+        }
+        predictedSteers.clear();
+        for(PendingSteer steer: pendingSteers){
+            predictedSteers.add(steer.direction);
+        }
+        long turns = (steerRttNanos + turnNanos() - 1) / turnNanos();
+        int predictedTurns = (int) Math.max(1, Math.min(MAX_PREDICTED_TURNS, turns));
+        view.paintState(currentState.predictedSnapshot(myId, predictedSteers, predictedTurns));
+    }
+
+    /**
+     * Forgets steers, which are seen in the current state or were lost
+     */
+    private void reconcileSteers(){
+        long now = System.nanoTime();
+        pendingSteers.removeIf(steer -> steer.appliedAfter != -1 && steer.appliedAfter < currentState.getStateId()
+                || now - steer.sentNanos > nodeTimeoutNanos());
+    }
 
-        for(Integer id: toRemove){
-            lastRecvs.remove(id);
+    private void confirmSteer(AckMessage ack){
+        for(PendingSteer steer: pendingSteers){
+            if(steer.seq == ack.seq && steer.appliedAfter == -1){
+                steer.appliedAfter = ack.stateId;
+                long rtt = System.nanoTime() - steer.sentNanos;
+                steerRttNanos = steerRttNanos == 0 ? rtt : (steerRttNanos * 7 + rtt) / 8;
+            }
         }
+    }
+
+    /**
+     * Returns id of the current state. It may be invoked from the thread of the loop only.
+     */
+    int currentStateId(){
+        return currentState.getStateId();
+    }
+
+    /**
+     * Returns config of the current game. It may be invoked from the thread of the loop only.
+     */
+    GameConfig currentConfig(){
+        return currentState.config;
+    }
 
-        return minimalTimeout;
+    private long turnNanos(){
+        return currentState.config.iterationDelayMs * 1_000_000L;
     }
 
-    private void processReceivedPacket(DatagramPacket recvPacket) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream byteIn = new ByteArrayInputStream(recvPacket.getData());
-        ObjectInputStream objIn = new ObjectInputStream(byteIn);
-        Object recvObj = objIn.readObject();
+    private long pingNanos(){
+        return currentState.config.pingDelayMs * 1_000_000L;
+    }
+
+    private long nodeTimeoutNanos(){
+        return currentState.config.nodeTimeoutMs * 1_000_000L;
+    }
 
-        if(!Message.class.isAssignableFrom(recvObj.getClass()))
+    /**
+     * Processes a datagram of the game. Malformed datagram is counted and dropped.
+     * Unexpected error of this controller stops the game, rather than the loop.
+     */
+    @Override
+    public void receive(ByteBuffer datagram, SocketAddress address){
+        if(stopped)
             return;
-        Message recvMessage = (Message) recvObj;
-        if((role == NodeRole.MASTER || recvMessage.senderId == masterId) && recvObj.getClass() != JoinMessage.class){
-            if(!currentState.players.containsKey(recvMessage.senderId))
+        try {
+            processDatagram(datagram, address);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void processDatagram(ByteBuffer datagram, SocketAddress address) throws IOException {
+        metrics.datagramReceived(datagram.remaining());
+        Message recvObj;
+        try {
+            ByteBuffer received = transport.receive(datagram, address);
+            if(received == null)
                 return;
-            lastRecvs.put(recvMessage.senderId, System.currentTimeMillis());
+            recvObj = MessageCodec.decode(received);
+        } catch (StreamCorruptedException | RuntimeException e) {
+            // Datagram may come from anyone, so its errors are not errors of the game
+            metrics.datagramMalformed();
+            return;
+        }
+        InetSocketAddress from = (InetSocketAddress) address;
+        if((role == NodeRole.MASTER || recvObj.senderId == masterId) && recvObj.getClass() != JoinMessage.class){
+            if(!currentState.players.containsKey(recvObj.senderId))
+                return;
+            Peer sender = peers.get(recvObj.senderId);
+            if(sender != null)
+                sender.lastRecv = System.nanoTime();
         }
 
         if(role == NodeRole.MASTER && recvObj.getClass() == SteerMessage.class){
             SteerMessage message = (SteerMessage)recvObj;
-            currentState.changeSnakeDirection(message.senderId, message.direction);
-            AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
-            sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+            int position = currentState.changeSnakeDirection(message.senderId, message.seq, message.direction);
+            AckMessage ack = new AckMessage(message.seq, myId, message.senderId,
+                    currentState.getStateId() + Math.max(position, 0));
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
         }
         else if(role == NodeRole.MASTER && recvObj.getClass() == JoinMessage.class){
             JoinMessage message = (JoinMessage)recvObj;
-            boolean canJoin = currentState.findSuitableCoord() != null;
+            boolean canJoin = currentState.canJoin();
             if(canJoin) {
                 int unusedId = findUnusedId();
-                lastPings.put(unusedId, System.currentTimeMillis());
-                lastRecvs.put(unusedId, System.currentTimeMillis());
-                int queueInitCapacity = (int)(2. / currentState.config.pingDelayMs + 2. / currentState.config.iterationDelayMs);
-                resendableQueues.put(unusedId, new ArrayList<>(queueInitCapacity));
+                addPeer(unusedId);
 
                 AckMessage ack = new AckMessage(message.seq, myId, unusedId);
-                sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+                sendPacket(ack, from.getAddress(), from.getPort(), false);
 
                 NodeRole newPlayerRole = NodeRole.NORMAL;
                 if(!isThereDeputy){
                     newPlayerRole = NodeRole.DEPUTY;
                     isThereDeputy = true;
-                    ChangeRoleMessage role = new ChangeRoleMessage(mySeq++, myId, unusedId, null, NodeRole.DEPUTY);
-                    sendPacket(role, recvPacket.getAddress(), recvPacket.getPort(), true);
+                    ChangeRoleMessage role = new ChangeRoleMessage(nextSeq(unusedId), myId, unusedId, null, NodeRole.DEPUTY);
+                    sendPacket(role, from.getAddress(), from.getPort(), true);
                 }
 
+                // Robots are only added by addRobots: a node, which joins over network, is steered by its player
                 PlayerInfo newPlayer = new PlayerInfo(
                         message.name, unusedId,
-                        recvPacket.getAddress().getHostAddress(), recvPacket.getPort(),
-                        newPlayerRole, message.playerType
+                        from.getAddress().getHostAddress(), from.getPort(),
+                        newPlayerRole, PlayerType.HUMAN
                 );
                 currentState.players.put(unusedId, newPlayer);
                 currentState.addNewSnake(unusedId);
 
-                StateMessage state = new StateMessage(mySeq++, myId, unusedId, currentState);
-                sendPacket(state, recvPacket.getAddress(), recvPacket.getPort(), true);
-                app.paintState(currentState);
+                StateMessage state = new StateMessage(nextSeq(unusedId), myId, unusedId, currentState);
+                sendPacket(state, from.getAddress(), from.getPort(), true);
+                publishState();
             }
             else{
                 ErrorMessage error = new ErrorMessage(mySeq++, myId, 0, "Game if full!");
-                sendPacket(error, recvPacket.getAddress(), recvPacket.getPort(), true);
+                sendPacket(error, from.getAddress(), from.getPort(), false);
             }
         }
         else if(role != NodeRole.MASTER && recvObj.getClass() == StateMessage.class){
             StateMessage message = (StateMessage) recvObj;
             AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
-            sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
             if(currentState == null || currentState.getStateId() < message.state.getStateId()) {
                 currentState = message.state;
-                app.paintState(currentState);
+                reconcileSteers();
+                publishState();
+            }
+        }
+        else if(role != NodeRole.MASTER && recvObj.getClass() == StateDeltaMessage.class){
+            StateDeltaMessage message = (StateDeltaMessage) recvObj;
+            int previousStateId = currentState.getStateId();
+            if(!currentState.applyDelta(message.delta))
+                return;
+            AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
+            if(currentState.getStateId() != previousStateId) {
+                reconcileSteers();
+                publishState();
             }
         }
         else if(recvObj.getClass() == PingMessage.class){
             PingMessage message = (PingMessage) recvObj;
             AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
-            sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
         }
         else if(recvObj.getClass() == ChangeRoleMessage.class){
             ChangeRoleMessage message = (ChangeRoleMessage) recvObj;
@@ -356,141 +789,275 @@ public class ApplicationControlThread extends Thread {
                     return;
                 role = NodeRole.NORMAL;
                 isThereDeputy = false;
-                lastPings.clear();
-                lastRecvs.clear();
-                resendableQueues.clear();
-                masterAddr = (Inet4Address) recvPacket.getAddress();
-                masterPort = recvPacket.getPort();
+                removeAllPeers();
+                masterAddr = (Inet4Address) from.getAddress();
+                masterPort = from.getPort();
                 masterId = message.senderId;
-                lastPings.put(masterId, System.currentTimeMillis());
-                lastRecvs.put(masterId, System.currentTimeMillis());
-                int queueInitCapacity = (int)(2. / currentState.config.pingDelayMs + 2. / currentState.config.iterationDelayMs);
-                resendableQueues.put(masterId, new ArrayList<>(queueInitCapacity));
+                addPeer(masterId);
             }
             AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
-            sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
         }
         else if(recvObj.getClass() == ErrorMessage.class){
             ErrorMessage message = (ErrorMessage) recvObj;
-            app.showErrorMessage(message.reason);
+            view.showErrorMessage(message.reason);
             AckMessage ack = new AckMessage(message.seq, myId, message.senderId);
-            sendPacket(ack, recvPacket.getAddress(), recvPacket.getPort(), false);
+            sendPacket(ack, from.getAddress(), from.getPort(), false);
         }
         else if(recvObj.getClass() == AckMessage.class){
             AckMessage message = (AckMessage) recvObj;
-            resendableQueues.get(message.senderId).removeIf(new Predicate<ResendablePacket>() {
-                @Override
-                public boolean test(ResendablePacket resendablePacket) {
-                    return resendablePacket.seq == message.seq;
-                }
-            });
+            Peer sender = peers.get(message.senderId);
+            if(sender == null)
+                return;
+            ResendablePacket packet = sender.window.remove(message.seq);
+            if(packet == null)
+                return;
+            releasePacket(packet);
+            if(role != NodeRole.MASTER && message.stateId != -1)
+                confirmSteer(message);
+            if(packet.stateId > ackedStates.getOrDefault(message.senderId, -1))
+                ackedStates.put(message.senderId, packet.stateId);
+            if(sender.pendingPing != null && sender.pendingPing.seq - packet.seq < 0)
+                releasePacket(sender.pendingPing);
+        }
+    }
+
+    /**
+     * @return packet, which is resent until acknowledged, or {@code null}, if it is not resent.
+     */
+    private ResendablePacket sendPacket(Message message, InetAddress address, int port, boolean resend) throws IOException {
+        while(true){
+            sendBuffer.clear();
+            try {
+                MessageCodec.encode(message, sendBuffer);
+                break;
+            } catch (BufferOverflowException e){
+                sendBuffer = grownBuffer(sendBuffer, e);
+            }
+        }
+        sendBuffer.flip();
+        return sendEncoded(sendBuffer, message.seq, message.receiverId, stateIdOf(message), address, port, resend);
+    }
+
+    /**
+     * Sends encoded message. Message may be resent only to a peer.
+     * Packet with a state supersedes previous state packet to the same peer, which is no longer resent.
+     */
+    private ResendablePacket sendEncoded(ByteBuffer message, int seq, int receiverId, int stateId,
+                                         InetAddress address, int port, boolean resend) throws IOException {
+        Peer peer = resend ? peers.get(receiverId) : null;
+        ChunkedTransport.Outgoing packet = transport.send(message, seq, address, port, peer != null);
+        if(peer == null)
+            return null;
+        ResendablePacket resendable = new ResendablePacket(packet, seq, stateId);
+        metrics.resendQueued();
+        ResendablePacket pushedOut = peer.window.put(resendable);
+        if(pushedOut != null)
+            releasePacket(pushedOut);
+        if(stateId != -1){
+            if(peer.pendingState != null)
+                releasePacket(peer.pendingState);
+            peer.pendingState = resendable;
         }
+        schedule(System.nanoTime() + pingNanos(), now -> resendPacket(peer, resendable, now));
+        return resendable;
+    }
+
+    /**
+     * Sends current state to every player.
+     * <p>
+     * Player receives difference from the latest state it acknowledged, or full state
+     * on keyframes and when no such difference can be built. Every distinct body is encoded once per turn,
+     * and only a header is written for each player.
+     */
+    private void broadcastState() throws IOException {
+        int playersSignature = playersSignature();
+        if(playersSignature != lastPlayersSignature){
+            ackedStates.clear();
+            lastPlayersSignature = playersSignature;
+        }
+        boolean keyframe = currentState.getStateId() % KEYFRAME_INTERVAL == 0;
+        TreeMap<Integer, ByteBuffer> encodedBodies = new TreeMap<>();
+        for (PlayerInfo player : currentState.players.values()) {
+            if(player.id == myId || player.type == PlayerType.ROBOT)
+                continue;
+            Integer base = ackedStates.get(player.id);
+            ByteBuffer body = null;
+            if(!keyframe && base != null)
+                body = encodeStateBody(encodedBodies, base);
+            if(body == null){
+                base = -1;
+                body = encodeStateBody(encodedBodies, base);
+            }
+            MessageType type = base == -1 ? MessageType.SENDSTATE : MessageType.SENDSTATEDELTA;
+            int seq = nextSeq(player.id);
+            ByteBuffer message = MessageCodec.prependHeader(body, headerBuffer, type, seq, myId, player.id);
+            sendEncoded(message, seq, player.id, currentState.getStateId(),
+                    InetAddress.getByName(player.ipAddress), player.port, true);
+            Peer peer = peers.get(player.id);
+            if(peer != null)
+                peer.lastPing = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns encoded body of a message, which brings a player from state {@code base} to current state,
+     * or body with full state, if {@code base} is -1. Bodies, encoded during this turn, are reused.
+     * @return encoded body or {@code null}, if difference from {@code base} can not be built.
+     */
+    private ByteBuffer encodeStateBody(TreeMap<Integer, ByteBuffer> encodedBodies, int base){
+        ByteBuffer body = encodedBodies.get(base);
+        if(body != null)
+            return body;
+        StateDelta delta = null;
+        if(base != -1){
+            delta = currentState.deltaSince(base);
+            if(delta == null)
+                return null;
+        }
+        int index = encodedBodies.size();
+        if(index == stateBodyBuffers.size())
+            stateBodyBuffers.add(ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+        while(true){
+            body = stateBodyBuffers.get(index);
+            body.clear();
+            body.position(MessageCodec.MAX_HEADER_SIZE);
+            try {
+                if(delta == null)
+                    currentState.writeTo(body);
+                else
+                    delta.writeTo(body);
+                break;
+            } catch (BufferOverflowException e){
+                stateBodyBuffers.set(index, grownBuffer(body, e));
+            }
+        }
+        body.limit(body.position());
+        body.position(MessageCodec.MAX_HEADER_SIZE);
+        encodedBodies.put(base, body);
+        return body;
+    }
+
+    /**
+     * Returns buffer of twice the capacity of {@code buffer}, which was too small for a message
+     * @throws BufferOverflowException {@code overflow}, if {@code buffer} is already as large as a message can be.
+     */
+    private static ByteBuffer grownBuffer(ByteBuffer buffer, BufferOverflowException overflow){
+        int maxCapacity = MessageCodec.MAX_HEADER_SIZE + MessageCodec.MAX_MESSAGE_SIZE;
+        if(buffer.capacity() >= maxCapacity)
+            throw overflow;
+        return ByteBuffer.allocate(Math.min(buffer.capacity() * 2, maxCapacity));
+    }
+
+    /**
+     * Returns id of the state, carried by {@code message}, or -1 if it carries none.
+     */
+    private static int stateIdOf(Message message){
+        if(message.getClass() == StateMessage.class)
+            return ((StateMessage) message).state.getStateId();
+        if(message.getClass() == StateDeltaMessage.class)
+            return ((StateDeltaMessage) message).delta.stateId;
+        return -1;
     }
 
-    private void sendPacket(Message message, InetAddress address, int port, boolean resend) throws IOException {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-        ObjectOutputStream objOut = new ObjectOutputStream(byteOut);
-        objOut.writeObject(message);
-        DatagramPacket packet = new DatagramPacket(byteOut.toByteArray(), byteOut.toByteArray().length, address, port);
-        if(resend)
-            resendableQueues.get(message.receiverId).add(new ResendablePacket(packet, message.seq));
-        socket.send(packet);
+    /**
+     * Returns a hash of ids, roles and addresses of the players.
+     * Once it changes, every player receives full state, as differences do not carry players.
+     */
+    private int playersSignature(){
+        int signature = 1;
+        for(PlayerInfo player: currentState.players.values()){
+            signature = 31 * signature + player.id;
+            signature = 31 * signature + player.role.ordinal();
+            signature = 31 * signature + player.ipAddress.hashCode();
+            signature = 31 * signature + player.port;
+        }
+        return signature;
     }
 
     private void deputyReplaceMaster() throws IOException {
         role = NodeRole.MASTER;
+        pendingSteers.clear();
+        startMasterTasks();
         currentState.players.get(myId).role = NodeRole.MASTER;
 
-        lastPings.clear();
-        lastRecvs.clear();
-        resendableQueues.clear();
+        removeAllPeers();
         for(Map.Entry<Integer, PlayerInfo> entry: currentState.players.entrySet()){
             int id = entry.getKey();
             PlayerInfo player = entry.getValue();
-            if(player.role == NodeRole.MASTER)
+            if(player.role == NodeRole.MASTER || player.type == PlayerType.ROBOT)
                 continue;
-            lastPings.put(id, System.currentTimeMillis());
-            lastRecvs.put(id, System.currentTimeMillis());
-            int queueInitCapacity = (int)(2. / currentState.config.pingDelayMs + 2. / currentState.config.iterationDelayMs);
-            resendableQueues.put(id, new ArrayList<>(queueInitCapacity));
-            ChangeRoleMessage fromDeputy = new ChangeRoleMessage(mySeq++, myId, id, NodeRole.MASTER, null);
+            addPeer(id);
+            ChangeRoleMessage fromDeputy = new ChangeRoleMessage(nextSeq(id), myId, id, NodeRole.MASTER, null);
             sendPacket(fromDeputy, InetAddress.getByName(player.ipAddress), player.port, true);
         }
-        if(currentState.players.size() == 1){
-            isThereDeputy = false;
-        }
-        else{
-            PlayerInfo newDeputy;
-            if(currentState.players.lastEntry().getValue().role == NodeRole.MASTER)
-                newDeputy = currentState.players.firstEntry().getValue();
-            else
-                newDeputy = currentState.players.lastEntry().getValue();
-            newDeputy.role = NodeRole.DEPUTY;
-            ChangeRoleMessage message = new ChangeRoleMessage(mySeq++, myId, newDeputy.id, null, NodeRole.DEPUTY);
-            sendPacket(message, InetAddress.getByName(newDeputy.ipAddress), newDeputy.port, true);
-        }
+        appointDeputy();
     }
 
-    private int findUnusedId(){
-        int iterations = currentState.snakes.size() + 1;
-        for(int i = 0; i < iterations; i++){
-            if(!currentState.snakes.containsKey(i))
-                return i;
+    /**
+     * Makes the last human player, other than master, deputy. Robots have no node, which could replace master.
+     */
+    private void appointDeputy() throws IOException {
+        PlayerInfo newDeputy = null;
+        for(PlayerInfo player: currentState.players.values()){
+            if(player.role != NodeRole.MASTER && player.type == PlayerType.HUMAN)
+                newDeputy = player;
         }
-        throw new IllegalStateException("SYSTEM ERROR: Could not find unused id");
+        isThereDeputy = newDeputy != null;
+        if(newDeputy == null)
+            return;
+        newDeputy.role = NodeRole.DEPUTY;
+        ChangeRoleMessage message = new ChangeRoleMessage(nextSeq(newDeputy.id), myId, newDeputy.id, null, NodeRole.DEPUTY);
+        sendPacket(message, InetAddress.getByName(newDeputy.ipAddress), newDeputy.port, true);
     }
 
-    public void run(){
-        byte[] buf = new byte[4096];
-        DatagramPacket recvPacket = new DatagramPacket(buf, 4096);
-        int currentSockTimeout = 0;
-        long lastUpdate = System.currentTimeMillis();
-        while(true){
-            try {
-                if(interrupted()) {
-                    if(role == NodeRole.MASTER){
-                        int deputyIndex = -1;
-                        PlayerInfo deputy = null;
-                        for(PlayerInfo player: currentState.players.values()){
-                            if(player.role == NodeRole.DEPUTY) {
-                                deputyIndex = player.id;
-                                deputy = player;
-                            }
-                        }
-                        if(deputyIndex == -1)
-                            break;
-                        ChangeRoleMessage message = new ChangeRoleMessage(mySeq++, myId, deputyIndex, null, NodeRole.MASTER);
-                        sendPacket(message, InetAddress.getByName(deputy.ipAddress), deputy.port, false);
-                    }
+    /**
+     * Adds up to {@code count} robot players, while the game can take them. It may be invoked from any thread,
+     * and does nothing, unless this node is master.
+     */
+    public void addRobots(int count){
+        execute(() -> {
+            if(stopped || role != NodeRole.MASTER)
+                return;
+            for(int i = 0; i < count && currentState.canJoin(); i++){
+                int id = findUnusedId();
+                currentState.players.put(id, new PlayerInfo("Robot " + id, id, "", 0, NodeRole.NORMAL, PlayerType.ROBOT));
+                if(!currentState.addNewSnake(id)){
+                    currentState.players.remove(id);
                     break;
                 }
-                currentSockTimeout -= System.currentTimeMillis() - lastUpdate;
-                if(currentSockTimeout <= 0)
-                    currentSockTimeout = processTimeoutTasks();
-                socket.setSoTimeout(currentSockTimeout);
-                socket.receive(recvPacket);
-                processReceivedPacket(recvPacket);
-            } catch(SocketTimeoutException | ClassNotFoundException e){
-                continue;
-            } catch (IOException e){
-                e.printStackTrace();
-                System.exit(-1);
             }
+            publishState();
+        });
+    }
+
+    private int findUnusedId(){
+        int iterations = currentState.snakes.size() + currentState.players.size() + 1;
+        for(int i = 0; i < iterations; i++){
+            if(!currentState.snakes.containsKey(i) && !currentState.players.containsKey(i))
+                return i;
         }
+        throw new IllegalStateException("SYSTEM ERROR: Could not find unused id");
     }
 
+    /**
+     * Passes steer of the player to the thread of the loop. It may be invoked from any thread.
+     */
     public void changeSnakeDirection(Direction direction){
+        execute(() -> processSteer(direction));
+    }
+
+    private void processSteer(Direction direction) throws IOException {
+        if(stopped)
+            return;
         if(role == NodeRole.MASTER) {
             currentState.changeSnakeDirection(myId, direction);
         }
         else{
-            try {
-                SteerMessage message = new SteerMessage(mySeq++, myId, masterId, direction);
-                sendPacket(message, masterAddr, masterPort, true);
-            } catch(IOException e){
-                e.printStackTrace();
-                System.exit(-1);
-            }
+            SteerMessage message = new SteerMessage(nextSeq(masterId), myId, masterId, direction);
+            sendPacket(message, masterAddr, masterPort, true);
+            pendingSteers.addLast(new PendingSteer(message.seq, direction, System.nanoTime()));
+            publishState();
         }
     }
 
@@ -0,0 +1,70 @@
+package application;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+/**
+ * This class represents queue of timed tasks, ordered by their deadlines.
+ * <p>
+ * Each wakeup runs only tasks, which are due. Tasks are never removed from the queue:
+ * a task checks whether it is still needed when it becomes due, and schedules itself again, if it is.
+ * Deadlines are given in {@link System#nanoTime()} units.
+ */
+class DeadlineQueue {
+
+    interface Task {
+        /**
+         * @param now current time in {@link System#nanoTime()} units.
+         */
+        void run(long now) throws IOException;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final long deadline;
+        private final long order;
+        private final Task task;
+
+        private Entry(long deadline, long order, Task task) {
+            this.deadline = deadline;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            long difference = deadline - other.deadline;
+            if(difference != 0)
+                return difference < 0 ? -1 : 1;
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final PriorityQueue<Entry> entries = new PriorityQueue<>();
+    private long scheduled = 0;
+
+    void schedule(long deadline, Task task){
+        entries.add(new Entry(deadline, scheduled++, task));
+    }
+
+    /**
+     * Returns deadline of the earliest task or {@code idleDeadline}, if it is earlier or there are no tasks.
+     */
+    long nextDeadline(long idleDeadline){
+        Entry first = entries.peek();
+        if(first == null || idleDeadline - first.deadline < 0)
+            return idleDeadline;
+        return first.deadline;
+    }
+
+    /**
+     * Runs every task with deadline not later than {@code now}.
+     * Tasks, scheduled by them for a later time, are left for the next wakeup.
+     */
+    void runDue(long now) throws IOException {
+        Entry first;
+        while((first = entries.peek()) != null && first.deadline - now <= 0){
+            entries.poll();
+            first.task.run(now);
+        }
+    }
+}
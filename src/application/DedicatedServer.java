@@ -0,0 +1,143 @@
+package application;
+
+import application.gamedata.GameConfig;
+import application.metrics.MetricsEndpoint;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.Properties;
+
+/**
+ * This class represents entry point of a dedicated master, which hosts games without graphic application
+ * and without a snake of its own. Games are hosted as rooms of a {@link RoomManager} on a single port.
+ * <p>
+ * Arguments have form {@code --key=value}. Keys are names of {@link GameConfig} fields, {@code port},
+ * {@code name}, {@code rooms}, number of games with the same config, {@code threads}, number of threads
+ * the games are run on, {@code metricsPort}, local port of a {@link MetricsEndpoint}, which is not started without it,
+ * {@code robots}, number of robot players in every game, and {@code config}, which names a properties file with the same keys.
+ * Arguments override values from the file, and absent values are taken from {@link GameConfig#GameConfig()}.
+ */
+public class DedicatedServer {
+
+    private static final String USAGE = "Usage: DedicatedServer [--config=FILE] [--port=PORT] [--name=NAME]"
+            + " [--rooms=N] [--threads=N] [--metricsPort=PORT] [--robots=N]"
+            + " [--width=N] [--height=N] [--foodStatic=N] [--foodPerPlayer=X] [--iterationDelayMs=N]"
+            + " [--deadFoodProb=X] [--pingDelayMs=N] [--nodeTimeoutMs=N]";
+
+    /**
+     * View of a dedicated master, which only reports errors. It may be invoked from many threads.
+     */
+    private static class ServerView implements GameView {
+        @Override
+        public void paintState(GameSnapshot snapshot) {}
+
+        @Override
+        public boolean paintsStates() {
+            return false;
+        }
+
+        @Override
+        public void showErrorMessage(String error) {
+            System.err.println(error);
+        }
+    }
+
+    public static void main(String[] args){
+        Properties properties;
+        GameConfig config;
+        int port;
+        int roomCount;
+        int threads;
+        int metricsPort;
+        int robots;
+        try {
+            properties = parseArguments(args);
+            config = readConfig(properties);
+            port = Integer.parseInt(properties.getProperty("port", "0"));
+            roomCount = Integer.parseInt(properties.getProperty("rooms", "1"));
+            threads = Integer.parseInt(properties.getProperty("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "-1"));
+            robots = Integer.parseInt(properties.getProperty("robots", "0"));
+            if(roomCount < 1 || roomCount > RoomManager.MAX_ROOMS || threads < 1 || robots < 0)
+                throw new IllegalArgumentException("Number of rooms, threads or robots is out of limits");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.bind(new InetSocketAddress(port));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 255);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, NetworkLoop.multicastInterface());
+            RoomManager manager = new RoomManager(channel, new ServerView(), threads);
+            manager.start();
+            for(int i = 0; i < roomCount; i++){
+                int roomId = manager.openRoom(config, properties.getProperty("name", "Server"));
+                manager.addRobots(roomId, robots);
+            }
+            if(metricsPort >= 0){
+                MetricsEndpoint endpoint = new MetricsEndpoint(metricsPort);
+                endpoint.start();
+                System.out.println("Serving metrics on http://localhost:" + endpoint.port() + MetricsEndpoint.PATH);
+            }
+            System.out.println("Hosting " + roomCount + " " + config.width + "x" + config.height + " games on port "
+                    + ((InetSocketAddress) channel.getLocalAddress()).getPort() + " with " + threads + " threads");
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Reads properties file, named by {@code --config}, and puts the rest of arguments over it
+     */
+    static Properties parseArguments(String[] args) throws IOException {
+        Properties arguments = new Properties();
+        for(String arg: args){
+            int separator = arg.indexOf('=');
+            if(!arg.startsWith("--") || separator < 0)
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            arguments.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        Properties properties = new Properties();
+        String file = arguments.getProperty("config");
+        if(file != null){
+            try (Reader reader = new FileReader(file)) {
+                properties.load(reader);
+            }
+        }
+        properties.putAll(arguments);
+        return properties;
+    }
+
+    /**
+     * Builds config from {@code properties}
+     * @throws IllegalArgumentException if a value is malformed or lies out of limits of {@link GameConfig}.
+     */
+    static GameConfig readConfig(Properties properties){
+        GameConfig defaults = new GameConfig();
+        GameConfig config = new GameConfig(
+                Integer.parseInt(properties.getProperty("width", String.valueOf(defaults.width))),
+                Integer.parseInt(properties.getProperty("height", String.valueOf(defaults.height))),
+                Integer.parseInt(properties.getProperty("foodStatic", String.valueOf(defaults.foodStatic))),
+                Double.parseDouble(properties.getProperty("foodPerPlayer", String.valueOf(defaults.foodPerPlayer))),
+                Integer.parseInt(properties.getProperty("iterationDelayMs", String.valueOf(defaults.iterationDelayMs))),
+                Double.parseDouble(properties.getProperty("deadFoodProb", String.valueOf(defaults.deadFoodProb))),
+                Integer.parseInt(properties.getProperty("pingDelayMs", String.valueOf(defaults.pingDelayMs))),
+                Integer.parseInt(properties.getProperty("nodeTimeoutMs", String.valueOf(defaults.nodeTimeoutMs)))
+        );
+        if(!config.isWithinLimits())
+            throw new IllegalArgumentException("Config is out of limits");
+        return config;
+    }
+}
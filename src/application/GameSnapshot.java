@@ -0,0 +1,117 @@
+package application;
+
+import application.gamedata.GameConfig;
+
+import java.util.Arrays;
+
+/**
+ * This class represents an immutable copy of a {@link GameState}, which is taken once per turn.
+ * <p>
+ * Snapshot is read by other threads without locks: it is created by {@link GameState#snapshot()}
+ * on the thread, which changes the state, and then only published.
+ * Cells are indices {@code y * width + x} of the field.
+ */
+public final class GameSnapshot {
+
+    public final int stateId;
+    public final GameConfig config;
+
+    private final int[] snakeIds;
+    private final GameState.SnakeState[] snakeStates;
+    /**
+     * Cells of snake {@code i}, starting from its head, lie in {@link #snakeCells}
+     * between {@code snakeOffsets[i]} and {@code snakeOffsets[i + 1]}
+     */
+    private final int[] snakeOffsets;
+    private final int[] snakeCells;
+    /**
+     * Sorted cells, which hold food
+     */
+    private final int[] foodCells;
+
+    private final int[] playerIds;
+    private final String[] playerNames;
+    private final int[] playerScores;
+
+    GameSnapshot(int stateId, GameConfig config, int[] snakeIds, GameState.SnakeState[] snakeStates,
+                 int[] snakeOffsets, int[] snakeCells, int[] foodCells,
+                 int[] playerIds, String[] playerNames, int[] playerScores) {
+        this.stateId = stateId;
+        this.config = config;
+        this.snakeIds = snakeIds;
+        this.snakeStates = snakeStates;
+        this.snakeOffsets = snakeOffsets;
+        this.snakeCells = snakeCells;
+        this.foodCells = foodCells;
+        this.playerIds = playerIds;
+        this.playerNames = playerNames;
+        this.playerScores = playerScores;
+    }
+
+    /**
+     * Returns index of the snake of player {@code id}, or -1, if there is no such snake.
+     * Snakes are ordered by id of their players.
+     */
+    public int indexOfSnake(int id){
+        int index = Arrays.binarySearch(snakeIds, id);
+        return index >= 0 ? index : -1;
+    }
+
+    public int snakeCount(){
+        return snakeIds.length;
+    }
+
+    public int snakeId(int snake){
+        return snakeIds[snake];
+    }
+
+    public GameState.SnakeState snakeState(int snake){
+        return snakeStates[snake];
+    }
+
+    public int snakeLength(int snake){
+        return snakeOffsets[snake + 1] - snakeOffsets[snake];
+    }
+
+    /**
+     * Returns cell {@code index} of snake {@code snake}, counting from its head
+     */
+    public int snakeCell(int snake, int index){
+        return snakeCells[snakeOffsets[snake] + index];
+    }
+
+    public int foodCount(){
+        return foodCells.length;
+    }
+
+    public int foodCell(int index){
+        return foodCells[index];
+    }
+
+    public int playerCount(){
+        return playerIds.length;
+    }
+
+    public int playerId(int player){
+        return playerIds[player];
+    }
+
+    public String playerName(int player){
+        return playerNames[player];
+    }
+
+    public int playerScore(int player){
+        return playerScores[player];
+    }
+
+    /**
+     * Returns index of the player with id {@code id}, or -1, if there is no such player
+     */
+    public int indexOfPlayer(int id){
+        for(int i = 0; i < playerIds.length; i++){
+            if(playerIds[i] == id)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -3,11 +3,17 @@ package application;
 import application.enums.Direction;
 import application.gamedata.Coord;
 import application.gamedata.GameConfig;
+import application.gamedata.IntMap;
+import application.gamedata.IntSet;
 import application.gamedata.PlayerInfo;
+import application.messages.MessageCodec;
 
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
 
 public class GameState implements Serializable {
 
@@ -19,107 +25,239 @@ public class GameState implements Serializable {
     public class Snake implements Serializable {
 
         final int playerId;
-        public final Deque<Coord> body;
+        final SnakeBody body;
         private SnakeState state = SnakeState.ALIVE;
         private Direction currentDirection;
+        /**
+         * Absolute position of the last cell of the snake
+         */
+        private int tailX, tailY;
+        /**
+         * Set by {@link #growTail()}, so that following {@link #cutTail()}
+         * does not vacate a cell, which has never been occupied
+         */
+        private boolean grown = false;
+        /**
+         * Steers, which are not yet applied, ordered by sequence numbers of their messages.
+         * Only master fills them: one of them is taken on each turn by {@link #applySteer()}.
+         */
+        private final int[] steerSeqs = new int[STEER_QUEUE_SIZE];
+        private final Direction[] steers = new Direction[STEER_QUEUE_SIZE];
+        private int steerCount = 0;
+        /**
+         * Sequence number of the latest steer, taken from the queue
+         */
+        private int takenSeq = -1;
 
         private Snake(int playerId, Coord head, Direction currentDirection) {
             this.playerId = playerId;
-            this.body = new ArrayDeque<>();
-            this.body.add(head);
-            Coord tailRel = new Coord(-currentDirection.x, -currentDirection.y);
-            this.body.addLast(tailRel);
+            this.body = new SnakeBody(head.x, head.y, 1);
+            Direction tailDirection = DIRECTIONS[currentDirection.ordinal() ^ 1];
+            this.body.addLast(SnakeBody.pack(1, tailDirection));
             this.currentDirection = currentDirection;
+            this.tailX = Math.floorMod(head.x + tailDirection.x, config.width);
+            this.tailY = Math.floorMod(head.y + tailDirection.y, config.height);
+        }
+
+        /**
+         * This constructor is invoked when a snake is received from the network.
+         */
+        private Snake(int playerId, SnakeState state, Direction currentDirection, SnakeBody body) {
+            this.playerId = playerId;
+            this.state = state;
+            this.currentDirection = currentDirection;
+            this.body = body;
+            int curX = body.headX();
+            int curY = body.headY();
+            for (int i = 0; i < body.keyPointCount(); i++) {
+                int keyPoint = body.keyPoint(i);
+                Direction keyPointDir = SnakeBody.directionOf(keyPoint);
+                curX += keyPointDir.x * SnakeBody.lengthOf(keyPoint);
+                curY += keyPointDir.y * SnakeBody.lengthOf(keyPoint);
+            }
+            this.tailX = Math.floorMod(curX, config.width);
+            this.tailY = Math.floorMod(curY, config.height);
+        }
+
+        private int ownerId(){
+            return playerId + 1;
+        }
+
+        int headCell(){
+            return cellOf(body.headX(), body.headY());
+        }
+
+        /**
+         * Returns direction, which the snake moved in on the last turn
+         */
+        Direction direction(){
+            return currentDirection;
+        }
+
+        /**
+         * Returns direction from the head of the snake towards its neck, which it can't turn to
+         */
+        Direction neckDirection(){
+            return SnakeBody.directionOf(body.keyPoint(0));
+        }
+
+        int length(){
+            return lengthOf(body);
         }
 
         public SnakeState getState(){
             return state;
         }
 
-        private void changeDirection(Direction direction){
-            synchronized (this) {
-                Coord head = this.body.pollFirst();
-                if (this.body.peekFirst().dirOfRelative().id != direction.id) {
-                    currentDirection = direction;
-                }
-                this.body.addFirst(head);
+        /**
+         * Puts steer with sequence number {@code seq} into the queue of the snake.
+         * @return position of the steer in the queue, or -1, if the steer is already taken or the queue is full.
+         */
+        private int queueSteer(int seq, Direction direction){
+            if(seq <= takenSeq)
+                return -1;
+            int index = steerCount;
+            while(index > 0 && steerSeqs[index - 1] >= seq){
+                if(steerSeqs[index - 1] == seq)
+                    return index - 1;
+                index--;
             }
+            if(steerCount == STEER_QUEUE_SIZE)
+                return -1;
+            System.arraycopy(steerSeqs, index, steerSeqs, index + 1, steerCount - index);
+            System.arraycopy(steers, index, steers, index + 1, steerCount - index);
+            steerSeqs[index] = seq;
+            steers[index] = direction;
+            steerCount++;
+            return index;
         }
 
-        private void moveHead(){
-            synchronized (this) {
-                Coord head = body.removeFirst();
-                Coord keyPoint = body.peekFirst();
-                Direction lastDirection = keyPoint.dirOfRelative();
-                if (currentDirection.x == -lastDirection.x && currentDirection.y == -lastDirection.y) {
-                    body.removeFirst();
-                    body.addFirst(new Coord(keyPoint.x + lastDirection.x, keyPoint.y + lastDirection.y));
-                } else {
-                    body.addFirst(new Coord(-currentDirection.x, -currentDirection.y));
+        private int nextSteerSeq(){
+            return steerCount == 0 ? takenSeq + 1 : steerSeqs[steerCount - 1] + 1;
+        }
+
+        /**
+         * Takes steers from the queue, until one of them turns the snake
+         */
+        private void applySteer(){
+            while(steerCount > 0){
+                Direction steer = steers[0];
+                takenSeq = steerSeqs[0];
+                steerCount--;
+                System.arraycopy(steerSeqs, 1, steerSeqs, 0, steerCount);
+                System.arraycopy(steers, 1, steers, 0, steerCount);
+                steers[steerCount] = null;
+                if(turns(body, currentDirection, steer)){
+                    currentDirection = steer;
+                    return;
                 }
-                body.addFirst(new Coord(Math.floorMod(head.x + currentDirection.x, config.width), Math.floorMod(head.y + currentDirection.y, config.height)));
             }
         }
 
+        private void moveHead(){
+            body.moveHead(currentDirection, config.width, config.height);
+        }
+
         private void growTail(){
-            synchronized (this) {
-                Coord tail = body.removeLast();
-                Direction relTail = tail.dirOfRelative();
-                body.addLast(new Coord(tail.x + relTail.x, tail.y + relTail.y));
-            }
+            Direction relTail = SnakeBody.directionOf(body.keyPoint(body.keyPointCount() - 1));
+            body.growTail();
+            tailX = Math.floorMod(tailX + relTail.x, config.width);
+            tailY = Math.floorMod(tailY + relTail.y, config.height);
+            grown = true;
         }
 
         private void cutTail(){
-            synchronized (this) {
-                Coord tail = body.removeLast();
-                Direction relTail = tail.dirOfRelative();
-                if (tail.x == relTail.x && tail.y == relTail.y)
-                    return;
-                body.addLast(new Coord(tail.x - relTail.x, tail.y - relTail.y));
-            }
+            int vacated = cellOf(tailX, tailY);
+            if (cells != null && !grown && cells.get(vacated) == ownerId())
+                cells.set(vacated, OccupancyGrid.EMPTY);
+            grown = false;
+            Direction relTail = SnakeBody.directionOf(body.keyPoint(body.keyPointCount() - 1));
+            body.cutTail();
+            tailX = Math.floorMod(tailX - relTail.x, config.width);
+            tailY = Math.floorMod(tailY - relTail.y, config.height);
         }
 
-        private boolean stumblesInto(Snake snake){
-            Coord head = body.peekFirst();
-            if(head.equals(snake.body.peekFirst()) && !this.equals(snake))
-                return true;
-            synchronized (this) {
-                Coord first = snake.body.removeFirst();
-                int curX = first.x;
-                int curY = first.y;
-                for (Coord coord : snake.body) {
-                    int countToPaint = Math.abs(coord.x) + Math.abs(coord.y);
-                    Direction nextDir = coord.dirOfRelative();
-                    int nextStepX = nextDir.x;
-                    int nextStepY = nextDir.y;
-                    while (countToPaint-- != 0) {
-                        curX = Math.floorMod(curX + nextStepX, config.width);
-                        curY = Math.floorMod(curY + nextStepY, config.height);
-                        if (head.x == curX && head.y == curY) {
-                            snake.body.addFirst(first);
-                            return true;
-                        }
-                    }
+        /**
+         * Passes index of every cell of the snake, starting from its head, to {@code action}.
+         */
+        private void forEachCell(IntConsumer action){
+            int curX = body.headX();
+            int curY = body.headY();
+            action.accept(cellOf(curX, curY));
+            for (int i = 0; i < body.keyPointCount(); i++) {
+                int keyPoint = body.keyPoint(i);
+                int countToIterate = SnakeBody.lengthOf(keyPoint);
+                Direction nextDir = SnakeBody.directionOf(keyPoint);
+                while (countToIterate-- != 0) {
+                    curX = Math.floorMod(curX + nextDir.x, config.width);
+                    curY = Math.floorMod(curY + nextDir.y, config.height);
+                    action.accept(cellOf(curX, curY));
                 }
-                snake.body.addFirst(first);
             }
-            return false;
         }
 
     }
 
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     private int stateId;
     public final TreeMap<Integer, Snake> snakes = new TreeMap<>();
-    public final ArrayList<Coord> foods = new ArrayList<>();
+    /**
+     * Cells of the field, which hold food
+     */
+    public final IntSet foods = new IntSet();
     public final TreeMap<Integer, PlayerInfo> players = new TreeMap<>();
     public final GameConfig config;
 
     private int snakesAlive;
+    /**
+     * Id of the player, who hosts the game without a snake, or -1.
+     * It is known only to the master, which created the game.
+     */
+    private transient int hostId = -1;
+
+    /**
+     * Occupancy grid of the field, indexed by {@code y * width + x}.
+     * Heads of the snakes are written to the grid only after collisions of the turn are resolved.
+     * <p>
+     * Grid is not transferred over the network and is rebuilt on demand by {@link #grid()}.
+     */
+    private transient OccupancyGrid cells;
+    /**
+     * New snake is placed in the center of an empty square with side {@code 2 * SPAWN_RADIUS + 1}
+     */
+    private static final int SPAWN_RADIUS = 2;
+    /**
+     * Number of steers, which a snake keeps for its next turns
+     */
+    private static final int STEER_QUEUE_SIZE = 4;
+
+    /**
+     * Number of turns, changes of which are kept for {@link #deltaSince(int)}
+     */
+    public static final int CHANGES_KEPT = 64;
+    /**
+     * Changes, which happened since the last turn.
+     * It stays {@code null} until {@code this} state makes its first turn.
+     */
+    private transient StateChange pendingChange;
+    private transient ArrayDeque<StateChange> recentChanges;
+    /**
+     * The oldest state, which differences can be built from
+     */
+    private transient int firstDeltaBase;
 
     /**
      * This constructor invoked when starting state of the game is created.
      */
     public GameState(GameConfig config, PlayerInfo master){
+        this(config, master, true);
+    }
+
+    /**
+     * @param masterPlays whether master gets a snake. Otherwise master only hosts the game.
+     */
+    public GameState(GameConfig config, PlayerInfo master, boolean masterPlays){
         stateId = 0;
 
         this.config = config;
@@ -127,7 +265,10 @@ public class GameState implements Serializable {
         players.put(master.id, master);
 
         snakesAlive = 0;
-        addNewSnake(master.id);
+        if(masterPlays)
+            addNewSnake(master.id);
+        else
+            hostId = master.id;
 
         addNeededFood();
     }
@@ -141,48 +282,315 @@ public class GameState implements Serializable {
         return stateId;
     }
 
+    /**
+     * Writes {@code this} state to {@code buf} in the wire format of {@link MessageCodec}.
+     * <p>
+     * Food is written as sorted cell indices, each one relative to the previous one.
+     */
+    public void writeTo(ByteBuffer buf){
+        MessageCodec.putConfig(buf, config);
+        MessageCodec.putVarInt(buf, stateId);
+        MessageCodec.putVarInt(buf, players.size());
+        for(PlayerInfo player: players.values()){
+            MessageCodec.putPlayer(buf, player);
+        }
+        MessageCodec.putVarInt(buf, snakes.size());
+        for(Snake snake: snakes.values()){
+            SnakeRecord.write(buf, snake.playerId, snake.state, snake.currentDirection, snake.body);
+        }
+        int[] foodCells = foods.toArray();
+        Arrays.sort(foodCells);
+        MessageCodec.putVarInt(buf, foodCells.length);
+        int previous = 0;
+        for(int cell: foodCells){
+            MessageCodec.putVarInt(buf, cell - previous);
+            previous = cell;
+        }
+    }
+
+    /**
+     * Copies {@code this} state into a snapshot, which may be read by any thread.
+     */
+    public GameSnapshot snapshot(){
+        return snapshot(-1, null, new int[0]);
+    }
+
+    /**
+     * Copies {@code this} state into a snapshot, in which snake of player {@code playerId} is predicted
+     * {@code turns} turns ahead, while the rest of the state stays as it is.
+     * <p>
+     * Prediction follows rules of {@link #changeState()} on a copy of the snake: {@code steers}
+     * are taken one per move, as master takes them from its queue, and it grows, when its head reaches food,
+     * which is then not shown. Collisions are not predicted.
+     */
+    public GameSnapshot predictedSnapshot(int playerId, List<Direction> steers, int turns){
+        Snake snake = snakes.get(playerId);
+        if(snake == null)
+            return snapshot();
+        SnakeBody body = new SnakeBody(snake.body);
+        Direction direction = snake.currentDirection;
+        int steer = 0;
+        int[] eaten = new int[turns];
+        int eatenCount = 0;
+        for(int i = 0; i < turns; i++){
+            while(steer < steers.size()){
+                Direction next = steers.get(steer++);
+                if(turns(body, direction, next)){
+                    direction = next;
+                    break;
+                }
+            }
+            body.moveHead(direction, config.width, config.height);
+            int head = cellOf(body.headX(), body.headY());
+            if(foods.contains(head))
+                eaten[eatenCount++] = head;
+            else
+                body.cutTail();
+        }
+        return snapshot(playerId, body, Arrays.copyOf(eaten, eatenCount));
+    }
+
+    /**
+     * @param replacedId id of the player, whose snake is shown with {@code replacement} body, or -1.
+     * @param hiddenFood food cells, which are not shown.
+     */
+    private GameSnapshot snapshot(int replacedId, SnakeBody replacement, int[] hiddenFood){
+        int[] snakeIds = new int[snakes.size()];
+        SnakeState[] snakeStates = new SnakeState[snakes.size()];
+        int[] snakeOffsets = new int[snakes.size() + 1];
+        int i = 0;
+        for(Snake snake: snakes.values()){
+            snakeIds[i] = snake.playerId;
+            snakeStates[i] = snake.state;
+            SnakeBody body = snake.playerId == replacedId ? replacement : snake.body;
+            snakeOffsets[i + 1] = snakeOffsets[i] + lengthOf(body);
+            i++;
+        }
+        int[] snakeCells = new int[snakeOffsets[snakes.size()]];
+        i = 0;
+        for(Snake snake: snakes.values()){
+            copyCells(snake.playerId == replacedId ? replacement : snake.body, snakeCells, snakeOffsets[i++]);
+        }
+        int[] foodCells = foods.toArray();
+        Arrays.sort(foodCells);
+        if(hiddenFood.length != 0){
+            int shown = 0;
+            for(int cell: foodCells){
+                boolean hidden = false;
+                for(int eaten: hiddenFood){
+                    hidden |= eaten == cell;
+                }
+                if(!hidden)
+                    foodCells[shown++] = cell;
+            }
+            foodCells = Arrays.copyOf(foodCells, shown);
+        }
+        int[] playerIds = new int[players.size()];
+        String[] playerNames = new String[players.size()];
+        int[] playerScores = new int[players.size()];
+        i = 0;
+        for(PlayerInfo player: players.values()){
+            playerIds[i] = player.id;
+            playerNames[i] = player.name;
+            playerScores[i] = player.getScore();
+            i++;
+        }
+        return new GameSnapshot(stateId, config, snakeIds, snakeStates, snakeOffsets, snakeCells, foodCells,
+                playerIds, playerNames, playerScores);
+    }
+
+    /**
+     * Reads a state, written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static GameState readFrom(ByteBuffer buf) throws StreamCorruptedException {
+        GameState state = new GameState(MessageCodec.getConfig(buf));
+        state.stateId = MessageCodec.getVarInt(buf);
+        int playersCount = MessageCodec.getCount(buf);
+        for(int i = 0; i < playersCount; i++){
+            PlayerInfo player = MessageCodec.getPlayer(buf);
+            state.players.put(player.id, player);
+        }
+        int snakesCount = MessageCodec.getCount(buf);
+        for(int i = 0; i < snakesCount; i++){
+            SnakeRecord record = SnakeRecord.readFrom(buf, state.config.width * state.config.height);
+            if(!record.fits(state.config.width, state.config.height))
+                throw new IllegalArgumentException("Snake is out of the field");
+            state.snakes.put(record.playerId, state.new Snake(record.playerId, record.state, record.direction, record.body));
+        }
+        state.snakesAlive = snakesCount;
+        int foodCount = MessageCodec.getCount(buf);
+        int cell = 0;
+        for(int i = 0; i < foodCount; i++){
+            cell += MessageCodec.getVarInt(buf);
+            if(!state.isCell(cell))
+                throw new IllegalArgumentException("Food is out of the field");
+            state.foods.add(cell);
+        }
+        return state;
+    }
+
+    /**
+     * Builds difference between state {@code baseStateId} and {@code this} state.
+     * @return built difference or {@code null}, if changes made since {@code baseStateId} are no longer kept.
+     */
+    public StateDelta deltaSince(int baseStateId){
+        if(recentChanges == null || baseStateId < firstDeltaBase || baseStateId > stateId
+                || stateId - baseStateId > recentChanges.size())
+            return null;
+        List<StateChange> changes = new ArrayList<>(stateId - baseStateId);
+        TreeSet<Integer> spawned = new TreeSet<>();
+        for(StateChange change: recentChanges){
+            if(change.stateId > baseStateId) {
+                changes.add(change);
+                spawned.addAll(change.spawns);
+            }
+        }
+        List<SnakeRecord> records = new ArrayList<>(spawned.size());
+        for(Integer id: spawned){
+            Snake snake = snakes.get(id);
+            if(snake == null)
+                continue;
+            records.add(new SnakeRecord(id, snake.state, snake.currentDirection, new SnakeBody(snake.body)));
+        }
+        int[] scores = new int[players.size() * 2];
+        int i = 0;
+        for(PlayerInfo player: players.values()){
+            scores[i++] = player.id;
+            scores[i++] = player.getScore();
+        }
+        return new StateDelta(baseStateId, stateId, changes, records, scores);
+    }
+
+    /**
+     * Replays changes of {@code delta}, which were not yet applied to {@code this} state.
+     * @return {@code false}, if {@code this} state is older than base of {@code delta}
+     * and {@code delta} could not be applied.
+     */
+    public boolean applyDelta(StateDelta delta){
+        if(stateId < delta.baseStateId)
+            return false;
+        if(stateId >= delta.stateId)
+            return true;
+        for(SnakeRecord record: delta.snakes){
+            if(!record.fits(config.width, config.height))
+                return false;
+        }
+        for(StateChange change: delta.changes){
+            for(Integer cell: change.foodAdded){
+                if(!isCell(cell))
+                    return false;
+            }
+        }
+        for(StateChange change: delta.changes){
+            if(change.stateId <= stateId)
+                continue;
+            for(Integer move: change.moves){
+                Snake snake = snakes.get(move >>> 3);
+                if(snake == null)
+                    continue;
+                snake.currentDirection = DIRECTIONS[move & 0b11];
+                snake.moveHead();
+                if((move & 0b100) != 0)
+                    snake.growTail();
+                snake.cutTail();
+            }
+            for(Integer cell: change.foodRemoved){
+                foods.remove(cell);
+            }
+            for(Integer id: change.deaths){
+                snakes.remove(id);
+            }
+            for(Integer id: change.zombies){
+                if(snakes.containsKey(id))
+                    snakes.get(id).state = SnakeState.ZOMBIE;
+            }
+            if(change.reset){
+                snakes.clear();
+                foods.clear();
+            }
+            for(Integer cell: change.foodAdded){
+                foods.add(cell);
+            }
+        }
+        for(SnakeRecord record: delta.snakes){
+            snakes.put(record.playerId, new Snake(record.playerId, record.state, record.direction, record.body));
+        }
+        for(int i = 0; i < delta.scores.length; i += 2){
+            PlayerInfo player = players.get(delta.scores[i]);
+            if(player != null)
+                player.setScore(delta.scores[i + 1]);
+        }
+        snakesAlive = snakes.size();
+        stateId = delta.stateId;
+        cells = null;
+        return true;
+    }
+
     /**
      * This method changes {@code this} object as if one turn has passed
      */
     public void changeState() {
+        if(pendingChange == null){
+            pendingChange = new StateChange();
+            recentChanges = new ArrayDeque<>(CHANGES_KEPT);
+            firstDeltaBase = stateId + 1;
+        }
         stateId++;
+        pendingChange.stateId = stateId;
+        OccupancyGrid grid = grid();
+        ArrayList<Integer> moves = pendingChange.moves;
         for(Snake snake: snakes.values()){
+            snake.applySteer();
+            moves.add(snake.playerId << 3 | snake.currentDirection.ordinal());
             snake.moveHead();
         }
-        foods.removeIf(new Predicate<Coord>() {
-            @Override
-            public boolean test(Coord food) {
-                boolean toDelete = false;
-                for(Snake snake: snakes.values()){
-                    if(food.equals(snake.body.peekFirst())){
-                        snake.growTail();
-                        if(snake.state == SnakeState.ALIVE)
-                            players.get(snake.playerId).incrementScore();
-                        toDelete = true;
-                    }
-                }
-                return toDelete;
+        ArrayList<Integer> eaten = new ArrayList<>();
+        int moveIndex = 0;
+        for(Snake snake: snakes.values()){
+            int head = snake.headCell();
+            if(grid.get(head) == OccupancyGrid.FOOD){
+                snake.growTail();
+                moves.set(moveIndex, moves.get(moveIndex) | 0b100);
+                if(snake.state == SnakeState.ALIVE)
+                    players.get(snake.playerId).incrementScore();
+                eaten.add(head);
             }
-        });
+            moveIndex++;
+        }
+        for(Integer cell: eaten){
+            removeFood(cell);
+        }
         for(Snake snake: snakes.values()){
             snake.cutTail();
         }
-        ArrayList<Integer> toDelete = new ArrayList<>(snakes.size());
-        for(Snake snake1: snakes.values()){
-            for(Snake snake2: snakes.values()){
-                if(snake1.stumblesInto(snake2) && !toDelete.contains(snake1.playerId)){
-                    toDelete.add(snake1.playerId);
-                    if(snake2.state == SnakeState.ALIVE)
-                        players.get(snake2.playerId).incrementScore();
-                }
+        TreeMap<Integer, Integer> killers = new TreeMap<>();
+        IntMap heads = new IntMap(snakes.size(), -1);
+        for(Snake snake: snakes.values()){
+            int head = snake.headCell();
+            int other = heads.putIfAbsent(head, snake.playerId);
+            if(other != -1){
+                killers.merge(snake.playerId, other, Math::min);
+                killers.merge(other, snake.playerId, Math::min);
             }
+            if(grid.get(head) != OccupancyGrid.EMPTY)
+                killers.merge(snake.playerId, grid.get(head) - 1, Math::min);
+        }
+        for(Map.Entry<Integer, Integer> entry: killers.entrySet()){
+            Snake killer = snakes.get(entry.getValue());
+            if(killer.state == SnakeState.ALIVE)
+                players.get(killer.playerId).incrementScore();
+        }
+        for(Snake snake: snakes.values()){
+            if(!killers.containsKey(snake.playerId))
+                grid.set(snake.headCell(), snake.ownerId());
         }
-        for(Integer id: toDelete){
+        for(Integer id: killers.keySet()){
             Snake snake = snakes.get(id);
             turnIntoFood(snake);
             if(snake.state == SnakeState.ALIVE)
                 players.get(snake.playerId).nullifyScore();
             snakes.remove(id);
+            pendingChange.deaths.add(id);
             snakesAlive--;
         }
         boolean toStartNewgame = true;
@@ -190,94 +598,122 @@ public class GameState implements Serializable {
             if(snake.state == SnakeState.ALIVE)
                 toStartNewgame = false;
         }
-        if(toStartNewgame) {
+        // Game is not restarted, while nobody but the host is in it
+        if(toStartNewgame && players.size() > (players.containsKey(hostId) ? 1 : 0))
             startNewGame();
-            return;
-        }
-
-        addNeededFood();
+        else
+            addNeededFood();
 
+        recentChanges.addLast(pendingChange);
+        if(recentChanges.size() > CHANGES_KEPT)
+            recentChanges.removeFirst();
+        pendingChange = new StateChange();
     }
 
     private void startNewGame() {
         foods.clear();
         snakes.clear();
+        grid().clear();
+        if(pendingChange != null){
+            pendingChange.reset = true;
+            pendingChange.foodRemoved.clear();
+            pendingChange.foodAdded.clear();
+        }
         snakesAlive = 0;
         for(PlayerInfo player: players.values()){
-            addNewSnake(player.id);
+            if(player.id != hostId)
+                addNewSnake(player.id);
         }
         addNeededFood();
     }
 
+    /**
+     * Frees cells of a dead snake and turns some of them into food.
+     */
     private void turnIntoFood(Snake snake){
-        Random rand = new Random();
-        double currentLuck;
+        Random rand = ThreadLocalRandom.current();
         double chance = config.deadFoodProb;
-        synchronized (this) {
-            Coord head = snake.body.removeFirst();
-            int curX = head.x;
-            int curY = head.y;
-            currentLuck = rand.nextDouble();
-            if (currentLuck < chance)
-                foods.add(new Coord(curX, curY));
-            for (Coord coord : snake.body) {
-                int countToIterate = Math.abs(coord.x + coord.y);
-                Direction nextDir = coord.dirOfRelative();
-                int nextStepX = nextDir.x;
-                int nextStepY = nextDir.y;
-                while (countToIterate-- != 0) {
-                    curX += nextStepX;
-                    curY += nextStepY;
-                    currentLuck = rand.nextDouble();
-                    if (currentLuck < chance)
-                        foods.add(new Coord(curX, curY));
-                }
-            }
-            snake.body.addFirst(head);
-        }
+        OccupancyGrid grid = grid();
+        int owner = snake.ownerId();
+        snake.forEachCell(cell -> {
+            if(grid.get(cell) == owner)
+                grid.set(cell, OccupancyGrid.EMPTY);
+            if(grid.get(cell) == OccupancyGrid.EMPTY && rand.nextDouble() < chance)
+                addFood(cell);
+        });
     }
 
     public void setZombie(int id){
-        if(snakes.containsKey(id))
+        if(snakes.containsKey(id)) {
             snakes.get(id).state = SnakeState.ZOMBIE;
+            if(pendingChange != null)
+                pendingChange.zombies.add(id);
+        }
     }
 
+    /**
+     * Queues steer of the snake of player {@code ownerId} after its steers, which are already queued
+     */
     public void changeSnakeDirection(int ownerId, Direction direction){
-        if(!snakes.containsKey(ownerId))
-            return;
-        snakes.get(ownerId).changeDirection(direction);
+        Snake snake = snakes.get(ownerId);
+        if(snake != null)
+            snake.queueSteer(snake.nextSteerSeq(), direction);
+    }
+
+    /**
+     * Queues steer of the snake of player {@code ownerId}, sent in message {@code seq}.
+     * Queued steers are applied one per turn, in order of their sequence numbers; repeated messages are ignored.
+     * @return number of turns, which pass before the turn, on which the steer is applied,
+     *         or -1, if the steer is not queued.
+     */
+    public int changeSnakeDirection(int ownerId, int seq, Direction direction){
+        Snake snake = snakes.get(ownerId);
+        return snake == null ? -1 : snake.queueSteer(seq, direction);
+    }
+
+    /**
+     * Checks whether {@code steer} turns a snake with {@code body}, which moves in {@code direction}.
+     * Steer in the same direction does not turn it, and steer towards its neck is ignored.
+     */
+    private static boolean turns(SnakeBody body, Direction direction, Direction steer){
+        return steer != direction && steer != SnakeBody.directionOf(body.keyPoint(0));
     }
 
+    /**
+     * Finds a random empty cell, which is a center of an empty 5x5 square.
+     * @return found cell or {@code null}, if there is no such cell.
+     */
     public Coord findSuitableCoord(){
-        ArrayList<Coord> emptyList = getEmptyTilesList();
-        ArrayList<Coord> triedEmptyList = new ArrayList<>(emptyList.size() / 2);
-        Random rand = new Random();
-        while(!emptyList.isEmpty()){
-            Coord nextCoord = emptyList.get(rand.nextInt(emptyList.size()));
-            boolean isSuitable = true;
-            for(int i = -2; i <= 2; i++){
-                for(int j = -2; j <= 2; j++){
-                    Coord currentCoord = new Coord(nextCoord.x + i, nextCoord.y + j);
-                    if(!emptyList.contains(currentCoord) && !triedEmptyList.contains(currentCoord))
-                        isSuitable = false;
-                }
-            }
-            if(isSuitable) {
-                return nextCoord;
-            }
-            else{
-                emptyList.remove(nextCoord);
-                triedEmptyList.add(nextCoord);
-            }
+        OccupancyGrid grid = grid();
+        if(!grid.hasFreeSquare(SPAWN_RADIUS))
+            return null;
+        Random rand = ThreadLocalRandom.current();
+        for(int drawn = 0; drawn < grid.freeCount(); drawn++){
+            int next = grid.drawFreeCell(rand, drawn);
+            if(grid.isFreeSquare(next % config.width, next / config.width, SPAWN_RADIUS))
+                return coordOf(next);
         }
         return null;
     }
 
+    /**
+     * Checks, whether a new snake may be placed, as {@link #findSuitableCoord()} would.
+     * The answer is cached, until occupancy of the field changes.
+     */
+    public boolean canJoin(){
+        return grid().hasFreeSquare(SPAWN_RADIUS);
+    }
+
     public boolean addNewSnake(int playerId){
         Coord suitable = findSuitableCoord();
         if(suitable != null){
-            Random rand = new Random();
-            snakes.put(playerId, new Snake(playerId, suitable, Direction.values()[rand.nextInt(Direction.values().length)]));
+            Random rand = ThreadLocalRandom.current();
+            Snake snake = new Snake(playerId, suitable, DIRECTIONS[rand.nextInt(DIRECTIONS.length)]);
+            snakes.put(playerId, snake);
+            OccupancyGrid grid = grid();
+            snake.forEachCell(cell -> grid.set(cell, snake.ownerId()));
+            if(pendingChange != null)
+                pendingChange.spawns.add(playerId);
             snakesAlive++;
             return true;
         }
@@ -293,46 +729,85 @@ public class GameState implements Serializable {
         int foodOnField = foods.size();
         if(foodToCreate <= foodOnField)
             return;
-        ArrayList<Coord> emptyList = getEmptyTilesList();
-        Random rand = new Random();
-        for(int i = 0; i < foodToCreate - foodOnField; i++){
-            Coord nextFood = emptyList.get(rand.nextInt(emptyList.size()));
-            foods.add(nextFood);
-            emptyList.remove(nextFood);
+        OccupancyGrid grid = grid();
+        Random rand = ThreadLocalRandom.current();
+        for(int i = 0; i < foodToCreate - foodOnField && grid.freeCount() > 0; i++){
+            addFood(grid.randomFreeCell(rand));
         }
     }
 
-    private ArrayList<Coord> getEmptyTilesList(){
-        ArrayList<Coord> emptyList = new ArrayList<>(config.width * config.height);
-        for(int i = 0; i < config.width; i++){
-            for(int j = 0; j < config.height; j++){
-                emptyList.add(new Coord(i, j));
-            }
+    /**
+     * Returns number of cells of a snake with {@code body}
+     */
+    private static int lengthOf(SnakeBody body){
+        int length = 1;
+        for (int i = 0; i < body.keyPointCount(); i++) {
+            length += SnakeBody.lengthOf(body.keyPoint(i));
         }
-        for(Coord food: foods){
-            emptyList.remove(food);
+        return length;
+    }
+
+    /**
+     * Writes index of every cell of a snake with {@code body}, starting from its head, to {@code dest} from {@code offset}.
+     * @return offset after the last written cell.
+     */
+    private int copyCells(SnakeBody body, int[] dest, int offset){
+        int curX = body.headX();
+        int curY = body.headY();
+        dest[offset++] = cellOf(curX, curY);
+        for (int i = 0; i < body.keyPointCount(); i++) {
+            int keyPoint = body.keyPoint(i);
+            int countToIterate = SnakeBody.lengthOf(keyPoint);
+            Direction nextDir = SnakeBody.directionOf(keyPoint);
+            while (countToIterate-- != 0) {
+                curX = Math.floorMod(curX + nextDir.x, config.width);
+                curY = Math.floorMod(curY + nextDir.y, config.height);
+                dest[offset++] = cellOf(curX, curY);
+            }
         }
+        return offset;
+    }
 
-        for(Snake snake: snakes.values()){
-            synchronized (this) {
-                Coord head = snake.body.removeFirst();
-                emptyList.remove(head);
-                int curX = head.x;
-                int curY = head.y;
-                for (Coord coord : snake.body) {
-                    int countToIterate = Math.abs(coord.x) + Math.abs(coord.y);
-                    Direction nextDir = coord.dirOfRelative();
-                    int nextStepX = nextDir.x;
-                    int nextStepY = nextDir.y;
-                    while (countToIterate-- != 0) {
-                        curX = Math.floorMod(curX + nextStepX, config.width);
-                        curY = Math.floorMod(curY + nextStepY, config.height);
-                        emptyList.remove(new Coord(curX, curY));
-                    }
-                }
-                snake.body.addFirst(head);
+    private int cellOf(int x, int y){
+        return y * config.width + x;
+    }
+
+    private Coord coordOf(int cell){
+        return Coord.ofCell(cell, config.width);
+    }
+
+    private boolean isCell(int cell){
+        return cell >= 0 && cell < config.width * config.height;
+    }
+
+    private void addFood(int cell){
+        grid().set(cell, OccupancyGrid.FOOD);
+        foods.add(cell);
+        if(pendingChange != null)
+            pendingChange.foodAdded.add(cell);
+    }
+
+    private void removeFood(int cell){
+        if(!foods.remove(cell))
+            return;
+        grid().set(cell, OccupancyGrid.EMPTY);
+        if(pendingChange != null)
+            pendingChange.foodRemoved.add(cell);
+    }
+
+    /**
+     * Returns occupancy grid of the field, building it from snakes and food,
+     * if this state has just been received from the network.
+     */
+    OccupancyGrid grid(){
+        if(cells == null){
+            OccupancyGrid grid = new OccupancyGrid(config.width, config.height);
+            foods.forEach(cell -> grid.set(cell, OccupancyGrid.FOOD));
+            for(Snake snake: snakes.values()){
+                snake.forEachCell(cell -> grid.set(cell, snake.ownerId()));
             }
+            cells = grid;
         }
-        return emptyList;
+        return cells;
     }
 }
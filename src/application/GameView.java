@@ -0,0 +1,23 @@
+package application;
+
+/**
+ * This interface represents a view of the game, which {@link ApplicationControlThread} reports to.
+ * <p>
+ * Its methods are invoked on the thread of a {@link NetworkLoop}.
+ */
+public interface GameView {
+
+    /**
+     * Shows {@code snapshot} of the latest state of the game. Snapshot may be kept and read by any thread.
+     */
+    void paintState(GameSnapshot snapshot);
+
+    /**
+     * Checks, whether the view shows states at all, so that snapshots are not taken for nothing
+     */
+    default boolean paintsStates(){
+        return true;
+    }
+
+    void showErrorMessage(String error);
+}
@@ -0,0 +1,92 @@
+package application;
+
+import application.graphics.Application;
+import application.messages.AnnouncementMessage;
+import application.messages.Message;
+import application.messages.MessageCodec;
+import application.transport.ChunkedTransport;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+
+/**
+ * This class receives announcements of joinable games on the thread of a {@link NetworkLoop}.
+ * <p>
+ * Announcement channel joins multicast group, while the receiver is started, and leaves it, once it is stopped.
+ */
+public class JoinableGameReceiver implements NetworkLoop.Receiver {
+
+    public static final String ANNOUNCE_GROUP = "239.192.0.4";
+    public static final int ANNOUNCE_PORT = 9192;
+    private static final long OUTDATED_CHECK_NANOS = 3_000_000_000L;
+
+    private final Application app;
+    private final NetworkLoop loop;
+    private final DatagramChannel channel;
+    private final ChunkedTransport transport;
+    private MembershipKey membership;
+    /**
+     * Number of times the receiver was started. Check of outdated games of earlier starts stops.
+     */
+    private int generation = 0;
+
+    public JoinableGameReceiver(Application app, NetworkLoop loop, DatagramChannel channel) {
+        this.app = app;
+        this.loop = loop;
+        this.channel = channel;
+        this.transport = new ChunkedTransport(channel);
+    }
+
+    /**
+     * Opens channel, bound to the announcement port, which may be shared with other applications
+     */
+    public static DatagramChannel openChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(ANNOUNCE_PORT));
+        return channel;
+    }
+
+    public void start(){
+        loop.execute(() -> {
+            membership = channel.join(InetAddress.getByName(ANNOUNCE_GROUP), NetworkLoop.multicastInterface());
+            loop.register(channel, this);
+            int current = ++generation;
+            loop.schedule(System.nanoTime() + OUTDATED_CHECK_NANOS, now -> removeOutdatedGames(current, now));
+        });
+    }
+
+    public void stop(){
+        loop.execute(() -> {
+            generation++;
+            loop.unregister(channel);
+            if(membership != null)
+                membership.drop();
+            membership = null;
+            app.clearJoinableGames();
+        });
+    }
+
+    private void removeOutdatedGames(int current, long now){
+        if(current != generation)
+            return;
+        app.removeOutdatedGames();
+        loop.schedule(now + OUTDATED_CHECK_NANOS, time -> removeOutdatedGames(current, time));
+    }
+
+    @Override
+    public void receive(ByteBuffer datagram, SocketAddress sender) throws IOException {
+        ByteBuffer frame = transport.receive(datagram, sender);
+        if(frame == null)
+            return;
+        Message received = MessageCodec.decode(frame);
+        InetSocketAddress from = (InetSocketAddress) sender;
+        if(received.getClass() != AnnouncementMessage.class || from.getAddress().getClass() != Inet4Address.class)
+            return;
+        AnnouncementMessage message = (AnnouncementMessage) received;
+        app.processAnnouncementMessage(message, (Inet4Address) from.getAddress(), from.getPort());
+    }
+}
@@ -5,38 +5,36 @@ import application.enums.PlayerType;
 import application.gamedata.GameConfig;
 import application.gamedata.PlayerInfo;
 import application.messages.AnnouncementMessage;
+import application.messages.MessageCodec;
+import application.transport.ChunkedTransport;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
 import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 public class JoinableTestThread extends Thread{
     @Override
     public void run() {
-        try {
-            MulticastSocket socket = new MulticastSocket(9192);
-            socket.setTimeToLive(255);
-
-            socket.joinGroup(InetAddress.getByName("239.192.0.4"));
-            socket.setBroadcast(true);
-            socket.setLoopbackMode(true);
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            channel.bind(new InetSocketAddress(0));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 255);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, NetworkLoop.multicastInterface());
 
             PlayerInfo player = new PlayerInfo("Master", 1, "", (short)25565, NodeRole.MASTER, PlayerType.HUMAN);
             PlayerInfo[] players = new PlayerInfo[1];
             players[0] = player;
             AnnouncementMessage message = new AnnouncementMessage(1, 1, 1, players, new GameConfig(), true);
 
-            ByteArrayOutputStream byteOut = new ByteArrayOutputStream(4096);
-            ObjectOutputStream objOut = new ObjectOutputStream(byteOut);
-            objOut.writeObject(message);
-            byte[] buf = byteOut.toByteArray();
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, Inet4Address.getByName("239.192.0.4"), 9192);
+            ChunkedTransport transport = new ChunkedTransport(channel);
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            MessageCodec.encode(message, buf);
+            buf.flip();
             for(int i = 0; i < 10; i++){
-                socket.send(packet);
+                transport.send(buf.duplicate(), message.seq, Inet4Address.getByName(JoinableGameReceiver.ANNOUNCE_GROUP), JoinableGameReceiver.ANNOUNCE_PORT, false);
                 sleep(1000);
             }
         } catch (IOException | InterruptedException e) {
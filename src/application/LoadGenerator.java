@@ -0,0 +1,403 @@
+package application;
+
+import application.enums.Direction;
+import application.enums.NodeRole;
+import application.gamedata.GameConfig;
+import application.gamedata.PlayerInfo;
+import application.messages.AnnouncementMessage;
+import application.messages.Message;
+import application.messages.MessageCodec;
+import application.transport.ChunkedTransport;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents entry point of a load generator, which joins a game with many bot players
+ * from a single process, without graphic application.
+ * <p>
+ * First the generator waits for an announcement of room {@code room} of master on {@code host}:{@code port},
+ * as graphic application does, and bots join with config and id of master from it.
+ * Every bot is a regular client, an {@link ApplicationControlThread}, which joins the game,
+ * acknowledges states and pings master. Bots are served by {@code threads} network loops. Each bot steers
+ * every {@code steerMs} milliseconds, either at random or by {@code script}, a string of letters
+ * {@code U}, {@code D}, {@code L} and {@code R}, which is repeated. {@code loss} is probability,
+ * with which a datagram, received by a bot, is dropped, to check how the game recovers from losses.
+ * <p>
+ * Once a second the generator prints number of states, received by bots. After {@code seconds} seconds it reports
+ * intervals between states, received by a bot, delay of a state after the first bot received it, states,
+ * which bots skipped, and bots, which stopped receiving states.
+ * <p>
+ * Arguments have form {@code --key=value}, as arguments of {@link DedicatedServer}.
+ */
+public class LoadGenerator {
+
+    private static final String USAGE = "Usage: LoadGenerator --port=PORT [--host=ADDRESS] [--room=N] [--bots=N]"
+            + " [--threads=N] [--seconds=N] [--steerMs=N] [--script=UDLR...] [--loss=X]";
+
+    /**
+     * Client of the game, which records arrival of every state. It does not take snapshots of states.
+     * It is accessed by the thread of its loop only, until the loop is stopped.
+     */
+    static final class Bot implements GameView, NetworkLoop.Receiver {
+        private final double loss;
+        private final LongAdder receivedStates;
+        private ApplicationControlThread controller;
+
+        private GameConfig config;
+        /**
+         * Id of the latest state, which starts as id of the placeholder state of a joining client
+         */
+        private int lastStateId;
+        private long lastArrival;
+        private int skippedStates = 0;
+        private int stateCount = 0;
+        private int[] stateIds = new int[1024];
+        private long[] arrivals = new long[1024];
+
+        private int scriptPosition;
+        private long nextSteer;
+
+        private Bot(double loss, LongAdder receivedStates) {
+            this.loss = loss;
+            this.receivedStates = receivedStates;
+        }
+
+        @Override
+        public void receive(ByteBuffer datagram, SocketAddress sender) throws IOException {
+            if(loss > 0 && ThreadLocalRandom.current().nextDouble() < loss)
+                return;
+            controller.receive(datagram, sender);
+            int stateId = controller.currentStateId();
+            if(stateId > lastStateId)
+                recordState(stateId);
+        }
+
+        private void recordState(int stateId){
+            long now = System.nanoTime();
+            if(stateCount != 0)
+                skippedStates += stateId - lastStateId - 1;
+            config = controller.currentConfig();
+            lastStateId = stateId;
+            lastArrival = now;
+            if(stateCount == stateIds.length){
+                stateIds = Arrays.copyOf(stateIds, stateCount * 2);
+                arrivals = Arrays.copyOf(arrivals, stateCount * 2);
+            }
+            stateIds[stateCount] = stateId;
+            arrivals[stateCount] = now;
+            stateCount++;
+            receivedStates.increment();
+        }
+
+        @Override
+        public void paintState(GameSnapshot snapshot) {}
+
+        @Override
+        public boolean paintsStates() {
+            return false;
+        }
+
+        @Override
+        public void showErrorMessage(String error) {
+            System.err.println(error);
+        }
+    }
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final long ANNOUNCEMENT_TIMEOUT_NANOS = 5_000_000_000L;
+
+    public static void main(String[] args){
+        Inet4Address host;
+        int port;
+        int room;
+        int botCount;
+        int threads;
+        int seconds;
+        int steerMs;
+        Direction[] script;
+        double loss;
+        try {
+            Properties properties = DedicatedServer.parseArguments(args);
+            InetAddress address = InetAddress.getByName(properties.getProperty("host", "127.0.0.1"));
+            if(!(address instanceof Inet4Address))
+                throw new IllegalArgumentException("Host must have an IPv4 address");
+            host = (Inet4Address) address;
+            if(properties.getProperty("port") == null)
+                throw new IllegalArgumentException("Port of master is not given");
+            port = Integer.parseInt(properties.getProperty("port"));
+            room = Integer.parseInt(properties.getProperty("room", "0"));
+            botCount = Integer.parseInt(properties.getProperty("bots", "100"));
+            threads = Integer.parseInt(properties.getProperty("threads", "1"));
+            seconds = Integer.parseInt(properties.getProperty("seconds", "30"));
+            steerMs = Integer.parseInt(properties.getProperty("steerMs", "300"));
+            script = parseScript(properties.getProperty("script", ""));
+            loss = Double.parseDouble(properties.getProperty("loss", "0"));
+            if(botCount < 1 || threads < 1 || seconds < 1 || steerMs < 1 || loss < 0 || loss >= 1)
+                throw new IllegalArgumentException("Argument is out of limits");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            AnnouncementMessage announcement = awaitAnnouncement(host, port, room);
+            GameConfig config = announcement.config;
+            int masterId = masterOf(announcement).id;
+            if(!announcement.canJoin)
+                System.err.println("Room " + room + " is announced as full");
+
+            NetworkLoop[] loops = new NetworkLoop[threads];
+            for(int i = 0; i < threads; i++){
+                loops[i] = new NetworkLoop();
+                loops[i].start();
+            }
+            LongAdder receivedStates = new LongAdder();
+            Random rand = new Random();
+            ArrayList<Bot> bots = joinBots(loops, config, host, port, masterId, room, botCount,
+                    steerMs, script, loss, receivedStates, rand);
+            System.out.println("Bots: " + bots.size() + " joined, " + (botCount - bots.size()) + " failed");
+
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            long nextReport = start + 1_000_000_000L;
+            long lastReported = 0;
+            long now;
+            while((now = System.nanoTime()) < end){
+                steerDueBots(bots, now, steerMs, script, rand);
+                if(now >= nextReport){
+                    long received = receivedStates.sum();
+                    System.out.println((nextReport - start) / 1_000_000_000L + "s: " + (received - lastReported) + " states");
+                    lastReported = received;
+                    nextReport += 1_000_000_000L;
+                }
+                Thread.sleep(1);
+            }
+
+            for(NetworkLoop loop: loops){
+                loop.interrupt();
+            }
+            for(NetworkLoop loop: loops){
+                loop.join();
+            }
+            report(bots, System.nanoTime());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        } catch (InterruptedException ignored) {}
+        System.exit(0);
+    }
+
+    /**
+     * Joins {@code count} bots to room {@code room} of master on {@code host}:{@code port}, spread over {@code loops}.
+     * Bots, which master did not answer, are left out.
+     * @return joined bots, which are served by their loops.
+     */
+    static ArrayList<Bot> joinBots(NetworkLoop[] loops, GameConfig config, Inet4Address host, int port, int masterId, int room,
+                                   int count, int steerMs, Direction[] script, double loss, LongAdder receivedStates,
+                                   Random rand) throws IOException {
+        ArrayList<Bot> bots = new ArrayList<>();
+        long start = System.nanoTime();
+        for(int i = 0; i < count; i++){
+            NetworkLoop loop = loops[i % loops.length];
+            DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.bind(new InetSocketAddress(0));
+            Bot bot = new Bot(loss, receivedStates);
+            try {
+                bot.controller = new ApplicationControlThread(bot, loop, channel, config,
+                        host, port, masterId, room, "Bot" + i);
+                bot.lastStateId = bot.controller.currentStateId();
+            } catch (SocketTimeoutException e) {
+                channel.close();
+                continue;
+            }
+            bot.nextSteer = start + rand.nextInt(steerMs) * 1_000_000L;
+            bot.scriptPosition = script.length == 0 ? 0 : rand.nextInt(script.length);
+            loop.execute(() -> {
+                loop.register(channel, bot);
+                bot.controller.startShared();
+            });
+            bots.add(bot);
+        }
+        return bots;
+    }
+
+    /**
+     * Steers bots, whose time to steer came by {@code now}, at random or by {@code script}, if it is not empty
+     */
+    static void steerDueBots(ArrayList<Bot> bots, long now, int steerMs, Direction[] script, Random rand){
+        for(Bot bot: bots){
+            if(now < bot.nextSteer)
+                continue;
+            Direction direction;
+            if(script.length == 0)
+                direction = DIRECTIONS[rand.nextInt(DIRECTIONS.length)];
+            else
+                direction = script[bot.scriptPosition++ % script.length];
+            bot.controller.changeSnakeDirection(direction);
+            bot.nextSteer += steerMs * 1_000_000L;
+        }
+    }
+
+    /**
+     * Receives announcements on the announcement group, as {@link JoinableGameReceiver} does,
+     * until room {@code room} of master on {@code host}:{@code port} is announced
+     * @throws SocketTimeoutException if it was not announced within {@link #ANNOUNCEMENT_TIMEOUT_NANOS}.
+     */
+    private static AnnouncementMessage awaitAnnouncement(Inet4Address host, int port, int room) throws IOException {
+        DatagramChannel channel = JoinableGameReceiver.openChannel();
+        MembershipKey membership = channel.join(InetAddress.getByName(JoinableGameReceiver.ANNOUNCE_GROUP),
+                NetworkLoop.multicastInterface());
+        channel.configureBlocking(false);
+        ChunkedTransport transport = new ChunkedTransport(channel);
+        ByteBuffer datagram = ByteBuffer.allocateDirect(ChunkedTransport.MAX_DATAGRAM_SIZE);
+        long end = System.nanoTime() + ANNOUNCEMENT_TIMEOUT_NANOS;
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            long left;
+            while((left = end - System.nanoTime()) > 0){
+                selector.select(Math.max(1, left / 1_000_000L));
+                selector.selectedKeys().clear();
+                SocketAddress sender;
+                while((sender = channel.receive(datagram)) != null){
+                    datagram.flip();
+                    AnnouncementMessage message = readAnnouncement(transport, datagram, (InetSocketAddress) sender);
+                    datagram.clear();
+                    if(message != null && message.roomId == room && masterOf(message) != null
+                            && isMaster((InetSocketAddress) sender, host, port))
+                        return message;
+                }
+            }
+        } finally {
+            membership.drop();
+            channel.close();
+        }
+        throw new SocketTimeoutException("Room " + room + " of " + host.getHostAddress() + ":" + port + " is not announced");
+    }
+
+    /**
+     * @return announcement in {@code datagram} or {@code null}, if it is a part of a message,
+     * a message of another type or malformed.
+     */
+    private static AnnouncementMessage readAnnouncement(ChunkedTransport transport, ByteBuffer datagram, InetSocketAddress sender) throws IOException {
+        try {
+            ByteBuffer frame = transport.receive(datagram, sender);
+            if(frame == null)
+                return null;
+            Message message = MessageCodec.decode(frame);
+            return message.getClass() == AnnouncementMessage.class ? (AnnouncementMessage) message : null;
+        } catch (StreamCorruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks, whether {@code sender} is master on {@code host}:{@code port}.
+     * Multicast from master on this machine comes from an address of an interface, so it matches loopback host.
+     */
+    private static boolean isMaster(InetSocketAddress sender, Inet4Address host, int port) throws IOException {
+        if(sender.getPort() != port)
+            return false;
+        if(sender.getAddress().equals(host))
+            return true;
+        return host.isLoopbackAddress() && NetworkInterface.getByInetAddress(sender.getAddress()) != null;
+    }
+
+    private static PlayerInfo masterOf(AnnouncementMessage message){
+        for(PlayerInfo player: message.players){
+            if(player.role == NodeRole.MASTER)
+                return player;
+        }
+        return null;
+    }
+
+    /**
+     * Prints intervals between states, delays of states, skipped states and silent bots.
+     * It must be invoked, once loops of {@code bots} are stopped.
+     */
+    static void report(ArrayList<Bot> bots, long now){
+        if(bots.isEmpty())
+            return;
+        Map<Integer, Long> firstArrivals = new HashMap<>();
+        long intervalCount = 0;
+        long stateCount = 0;
+        long skipped = 0;
+        GameConfig config = null;
+        for(Bot bot: bots){
+            for(int i = 0; i < bot.stateCount; i++){
+                firstArrivals.merge(bot.stateIds[i], bot.arrivals[i], Math::min);
+            }
+            intervalCount += Math.max(0, bot.stateCount - 1);
+            stateCount += bot.stateCount;
+            skipped += bot.skippedStates;
+            if(bot.config != null)
+                config = bot.config;
+        }
+        long[] intervals = new long[(int) intervalCount];
+        long[] delays = new long[(int) stateCount];
+        int silent = 0;
+        int interval = 0;
+        int delay = 0;
+        for(Bot bot: bots){
+            for(int i = 0; i < bot.stateCount; i++){
+                if(i > 0)
+                    intervals[interval++] = bot.arrivals[i] - bot.arrivals[i - 1];
+                delays[delay++] = bot.arrivals[i] - firstArrivals.get(bot.stateIds[i]);
+            }
+            if(config != null && (bot.stateCount == 0 || now - bot.lastArrival > config.nodeTimeoutMs * 1_000_000L))
+                silent++;
+        }
+        System.out.println("Interval between states, ms" + (config == null ? "" : " (turn is " + config.iterationDelayMs + ")")
+                + ": " + percentiles(intervals));
+        System.out.println("Delay after the first bot, ms: " + percentiles(delays));
+        System.out.printf(Locale.ROOT, "Skipped states: %d of %d (%.2f%%)%n", skipped, skipped + stateCount,
+                skipped + stateCount == 0 ? 0.0 : 100.0 * skipped / (skipped + stateCount));
+        System.out.println("Bots without states for node timeout: " + silent);
+    }
+
+    private static String percentiles(long[] nanos){
+        if(nanos.length == 0)
+            return "none";
+        Arrays.sort(nanos);
+        return String.format(Locale.ROOT, "p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+                nanos[(int) (nanos.length * 0.5)] / 1e6, nanos[(int) (nanos.length * 0.9)] / 1e6,
+                nanos[(int) (nanos.length * 0.99)] / 1e6, nanos[nanos.length - 1] / 1e6);
+    }
+
+    private static Direction[] parseScript(String script){
+        Direction[] directions = new Direction[script.length()];
+        for(int i = 0; i < script.length(); i++){
+            switch (script.charAt(i)) {
+                case 'U': directions[i] = Direction.UP; break;
+                case 'D': directions[i] = Direction.DOWN; break;
+                case 'L': directions[i] = Direction.LEFT; break;
+                case 'R': directions[i] = Direction.RIGHT; break;
+                default: throw new IllegalArgumentException("Unexpected steer " + script.charAt(i) + " in script");
+            }
+        }
+        return directions;
+    }
+}
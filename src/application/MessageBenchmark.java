@@ -0,0 +1,327 @@
+package application;
+
+import application.enums.Direction;
+import application.gamedata.GameConfig;
+import application.gamedata.PlayerInfo;
+import application.messages.AckMessage;
+import application.messages.AnnouncementMessage;
+import application.messages.Message;
+import application.messages.MessageCodec;
+import application.messages.StateDeltaMessage;
+import application.messages.StateMessage;
+import application.messages.SteerMessage;
+import application.metrics.ControlMetrics;
+import application.metrics.ControlMetricsMXBean;
+import application.transport.ChunkedTransport;
+
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents entry point of a benchmark of transport of messages.
+ * <p>
+ * Messages are taken from a game on a square field of side {@code side} with {@code snakes} snakes,
+ * which has made {@code warmup} turns, and size of every kind of message is reported. Time and allocation
+ * of their encoding and decoding are measured by JMH benchmark {@code MessageCodecBenchmark}.
+ * <p>
+ * Then transport ping-pong runs: a master channel and {@code clients} client channels exchange these messages
+ * over the loopback interface for {@code seconds} seconds through {@link ChunkedTransport}: on every round
+ * master channel sends a state delta to every client, and every client sends a steer to master.
+ * Both sides are driven by a single thread, so the rate shows the whole cost of sending, receiving and decoding
+ * a message, without {@link ApplicationControlThread}.
+ * <p>
+ * At last a real master, an {@link ApplicationControlThread} on its own {@link NetworkLoop}, hosts a game
+ * on the loopback interface with turns of {@code turnMs} milliseconds, and {@code clients} bots of
+ * {@link LoadGenerator} join it through the handshake and steer every {@code steerMs} milliseconds.
+ * After a second the game is measured for {@code seconds} seconds: turns of master, their duration and lateness,
+ * traffic of master, and CPU time and allocation of its thread, followed by the report of bots.
+ * Bots are served by another loop of this process, so on a single CPU they compete with master.
+ * <p>
+ * Arguments have form {@code --key=value}, as arguments of {@link DedicatedServer}.
+ */
+public class MessageBenchmark {
+
+    private static final String USAGE = "Usage: MessageBenchmark [--side=N] [--snakes=N] [--warmup=N]"
+            + " [--clients=N] [--seconds=N] [--turnMs=N] [--steerMs=N]";
+    private static final long SETTLE_NANOS = 1_000_000_000L;
+
+    /**
+     * Sum of seqs of decoded messages, so that decoding is not eliminated
+     */
+    private static int sink;
+
+    public static void main(String[] args){
+        int side;
+        int snakeCount;
+        int warmup;
+        int clients;
+        int seconds;
+        int turnMs;
+        int steerMs;
+        try {
+            Properties properties = DedicatedServer.parseArguments(args);
+            side = Integer.parseInt(properties.getProperty("side", "100"));
+            snakeCount = Integer.parseInt(properties.getProperty("snakes", "20"));
+            warmup = Integer.parseInt(properties.getProperty("warmup", "500"));
+            clients = Integer.parseInt(properties.getProperty("clients", "20"));
+            seconds = Integer.parseInt(properties.getProperty("seconds", "5"));
+            turnMs = Integer.parseInt(properties.getProperty("turnMs", "100"));
+            steerMs = Integer.parseInt(properties.getProperty("steerMs", "300"));
+            if(snakeCount < 1 || warmup < 1 || clients < 1 || seconds < 1 || steerMs < 1)
+                throw new IllegalArgumentException("Argument is out of limits");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        GameConfig defaults = new GameConfig();
+        GameConfig config = new GameConfig(side, side, defaults.foodStatic, defaults.foodPerPlayer,
+                defaults.iterationDelayMs, defaults.deadFoodProb, defaults.pingDelayMs, defaults.nodeTimeoutMs);
+        if(!config.isWithinLimits()){
+            System.err.println("Config is out of limits");
+            System.exit(2);
+        }
+        SimulatedGame game = new SimulatedGame(config, snakeCount, side);
+        for(int i = 0; i < warmup; i++){
+            game.turn();
+        }
+
+        Map<String, Message> messages = sampleMessages(game.state);
+        try {
+            System.out.println("message,bytes");
+            for(Map.Entry<String, Message> message: messages.entrySet()){
+                System.out.println(message.getKey() + "," + encode(message.getValue()).remaining());
+            }
+
+            System.out.println();
+            System.out.println("clients,rounds,roundsPerSecond,downMessages,downLost,downMBps,upMessages,upLost");
+            runPingPong(messages.get("delta"), messages.get("steer"), clients, seconds);
+
+            GameConfig masterConfig = new GameConfig(side, side, defaults.foodStatic, defaults.foodPerPlayer,
+                    turnMs, defaults.deadFoodProb, defaults.pingDelayMs, defaults.nodeTimeoutMs);
+            if(!masterConfig.isWithinLimits())
+                throw new IllegalArgumentException("Turn is out of limits");
+            System.out.println();
+            System.out.println("clients,turns,turnsPerSecond,turnP50Us,turnP99Us,latenessP99Us,skippedTurns,"
+                    + "sentDatagramsPerSecond,sentMBps,receivedDatagramsPerSecond,resends,cpuPercent,allocatedMBps");
+            runMaster(masterConfig, clients, seconds, steerMs);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        } catch (InterruptedException ignored) {}
+        System.exit(0);
+    }
+
+    /**
+     * Returns a message of every kind, which is sent during {@code state}, by names of the kinds
+     */
+    static Map<String, Message> sampleMessages(GameState state){
+        Map<String, Message> messages = new LinkedHashMap<>();
+        messages.put("state", new StateMessage(1000, 0, 1, state));
+        messages.put("delta", new StateDeltaMessage(1000, 0, 1, state.deltaSince(state.getStateId() - 1)));
+        messages.put("steer", new SteerMessage(1000, 1, 0, Direction.UP));
+        messages.put("ack", new AckMessage(1000, 0, 1, state.getStateId()));
+        messages.put("announcement", new AnnouncementMessage(1000, 0, 0,
+                state.players.values().toArray(new PlayerInfo[0]), state.config, state.canJoin()));
+        return messages;
+    }
+
+    private static void runPingPong(Message downMessage, Message upMessage, int clientCount, int seconds) throws IOException {
+        ByteBuffer down = encode(downMessage);
+        ByteBuffer up = encode(upMessage);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel master = open(loopback);
+        ChunkedTransport masterTransport = new ChunkedTransport(master);
+        int masterPort = ((InetSocketAddress) master.getLocalAddress()).getPort();
+        DatagramChannel[] clients = new DatagramChannel[clientCount];
+        ChunkedTransport[] clientTransports = new ChunkedTransport[clientCount];
+        int[] clientPorts = new int[clientCount];
+        for(int i = 0; i < clientCount; i++){
+            clients[i] = open(loopback);
+            clientTransports[i] = new ChunkedTransport(clients[i]);
+            clientPorts[i] = ((InetSocketAddress) clients[i].getLocalAddress()).getPort();
+        }
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(ChunkedTransport.MAX_DATAGRAM_SIZE);
+        long downReceived = 0;
+        long upReceived = 0;
+        long rounds = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long now;
+        do {
+            int seq = (int) rounds;
+            for(int i = 0; i < clientCount; i++){
+                masterTransport.send(down.duplicate(), seq, loopback, clientPorts[i], false);
+                clientTransports[i].send(up.duplicate(), seq, loopback, masterPort, false);
+            }
+            upReceived += drain(master, masterTransport, frame);
+            for(int i = 0; i < clientCount; i++){
+                downReceived += drain(clients[i], clientTransports[i], frame);
+            }
+            rounds++;
+            now = System.nanoTime();
+        } while(now < end);
+
+        double elapsed = (now - start) / 1e9;
+        long sent = rounds * clientCount;
+        System.out.printf(Locale.ROOT, "%d,%d,%.1f,%d,%d,%.2f,%d,%d%n", clientCount, rounds, rounds / elapsed,
+                downReceived, sent - downReceived, downReceived * down.remaining() / elapsed / 1e6,
+                upReceived, sent - upReceived);
+
+        master.close();
+        for(DatagramChannel client: clients){
+            client.close();
+        }
+    }
+
+    /**
+     * Hosts a game by a real master with {@code clientCount} joined bots and reports its cost
+     */
+    private static void runMaster(GameConfig config, int clientCount, int seconds, int steerMs)
+            throws IOException, InterruptedException {
+        Inet4Address loopback = (Inet4Address) InetAddress.getByName("127.0.0.1");
+        NetworkLoop masterLoop = new NetworkLoop();
+        masterLoop.setName("Master");
+        masterLoop.start();
+        DatagramChannel channel = open(loopback);
+        int port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        ApplicationControlThread master = new ApplicationControlThread(config, new SilentView(), masterLoop, channel,
+                "Master", false, 0);
+        master.start();
+
+        NetworkLoop[] botLoops = {new NetworkLoop()};
+        botLoops[0].setName("Bots");
+        botLoops[0].start();
+        Random rand = new Random(clientCount);
+        Direction[] script = new Direction[0];
+        ArrayList<LoadGenerator.Bot> bots = LoadGenerator.joinBots(botLoops, config, loopback, port, 0, 0, clientCount,
+                steerMs, script, 0, new LongAdder(), rand);
+        if(bots.size() < clientCount)
+            System.err.println((clientCount - bots.size()) + " bots did not join");
+
+        ControlMetricsMXBean metrics = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                masterMetricsName(port), ControlMetricsMXBean.class);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long settled = System.nanoTime() + SETTLE_NANOS;
+        long now;
+        while((now = System.nanoTime()) < settled){
+            LoadGenerator.steerDueBots(bots, now, steerMs, script, rand);
+            Thread.sleep(1);
+        }
+
+        long turns = metrics.getTurns();
+        long skipped = metrics.getSkippedTurns();
+        long sentDatagrams = metrics.getSentDatagrams();
+        long sentBytes = metrics.getSentBytes();
+        long receivedDatagrams = metrics.getReceivedDatagrams();
+        long resends = metrics.getResends();
+        long cpu = threads.getThreadCpuTime(masterLoop.getId());
+        long allocated = threads.getThreadAllocatedBytes(masterLoop.getId());
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while((now = System.nanoTime()) < end){
+            LoadGenerator.steerDueBots(bots, now, steerMs, script, rand);
+            Thread.sleep(1);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        turns = metrics.getTurns() - turns;
+        System.out.printf(Locale.ROOT, "%d,%d,%.1f,%.1f,%.1f,%.1f,%d,%.1f,%.3f,%.1f,%d,%.1f,%.2f%n",
+                bots.size(), turns, turns / elapsed,
+                metrics.getTurnDurationP50Nanos() / 1e3, metrics.getTurnDurationP99Nanos() / 1e3,
+                metrics.getTurnLatenessP99Nanos() / 1e3, metrics.getSkippedTurns() - skipped,
+                (metrics.getSentDatagrams() - sentDatagrams) / elapsed, (metrics.getSentBytes() - sentBytes) / elapsed / 1e6,
+                (metrics.getReceivedDatagrams() - receivedDatagrams) / elapsed, metrics.getResends() - resends,
+                (threads.getThreadCpuTime(masterLoop.getId()) - cpu) / elapsed / 1e7,
+                (threads.getThreadAllocatedBytes(masterLoop.getId()) - allocated) / elapsed / 1e6);
+
+        masterLoop.interrupt();
+        botLoops[0].interrupt();
+        masterLoop.join();
+        botLoops[0].join();
+        System.out.println();
+        LoadGenerator.report(bots, System.nanoTime());
+    }
+
+    private static ObjectName masterMetricsName(int port){
+        try {
+            return new ObjectName(ControlMetrics.DOMAIN + ":type=ControlLoop,port=" + port + ",room=0");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * View of master, which shows nothing
+     */
+    private static class SilentView implements GameView {
+        @Override
+        public void paintState(GameSnapshot snapshot) {}
+
+        @Override
+        public boolean paintsStates() {
+            return false;
+        }
+
+        @Override
+        public void showErrorMessage(String error) {
+            System.err.println(error);
+        }
+    }
+
+    /**
+     * Receives and decodes every datagram, which is queued on {@code channel}
+     * @return number of decoded messages.
+     */
+    private static int drain(DatagramChannel channel, ChunkedTransport transport, ByteBuffer frame) throws IOException {
+        int messages = 0;
+        while(true){
+            frame.clear();
+            SocketAddress sender = channel.receive(frame);
+            if(sender == null)
+                return messages;
+            frame.flip();
+            ByteBuffer message = transport.receive(frame, sender);
+            if(message != null){
+                sink += MessageCodec.decode(message).seq;
+                messages++;
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Message message){
+        ByteBuffer buf = ByteBuffer.allocate(MessageCodec.MAX_MESSAGE_SIZE);
+        MessageCodec.encode(message, buf);
+        buf.flip();
+        return buf;
+    }
+
+    private static DatagramChannel open(InetAddress address) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.bind(new InetSocketAddress(address, 0));
+        channel.configureBlocking(false);
+        return channel;
+    }
+}
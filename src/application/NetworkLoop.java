@@ -0,0 +1,202 @@
+package application;
+
+import application.transport.ChunkedTransport;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class represents thread, which serves every datagram channel of the application and runs timed tasks.
+ * <p>
+ * Channels are non-blocking and registered with a single selector. Readable channel is drained
+ * by up to {@link #MAX_BATCH} datagrams at a time into one direct buffer, and every datagram is passed
+ * to the receiver of the channel right away, so receiver must not keep the buffer.
+ * <p>
+ * Receivers and timed tasks run on this thread only. Other threads pass work to it by {@link #execute(Action)}.
+ * <p>
+ * Timed tasks, which become due, run between any two datagrams or tasks, so that a burst of them delays a turn
+ * by processing of a single datagram or task at most, rather than by the whole batch.
+ * <p>
+ * Error of a receiver or a task is printed and does not stop the loop, as other games may be served by it.
+ * Owners of receivers and tasks handle their own errors, if they have to stop.
+ */
+public class NetworkLoop extends Thread {
+
+    public interface Receiver {
+        /**
+         * Processes a datagram from {@code sender}, which lies between position and limit of {@code datagram}.
+         * @throws StreamCorruptedException if the datagram is malformed. Such datagram is ignored.
+         */
+        void receive(ByteBuffer datagram, SocketAddress sender) throws IOException;
+    }
+
+    public interface Action {
+        void run() throws IOException;
+    }
+
+    /**
+     * Maximal number of datagrams, read from a channel, or tasks, run in a row, before other channels and tasks are served
+     */
+    private static final int MAX_BATCH = 64;
+    /**
+     * Longest time, which the loop sleeps for, if there are no timed tasks
+     */
+    private static final long IDLE_NANOS = 1_000_000_000L;
+
+    private final Selector selector;
+    private final DeadlineQueue timers = new DeadlineQueue();
+    private final ConcurrentLinkedQueue<Action> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(ChunkedTransport.MAX_DATAGRAM_SIZE);
+
+    public NetworkLoop() throws IOException {
+        selector = Selector.open();
+        setName("Network Loop");
+        setDaemon(true);
+    }
+
+    /**
+     * Runs {@code task} on this thread as soon as possible. It may be invoked from any thread.
+     */
+    public void execute(Action task){
+        tasks.offer(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs {@code task} at {@code deadline}, given in {@link System#nanoTime()} units.
+     * It may be invoked from this thread only.
+     */
+    void schedule(long deadline, DeadlineQueue.Task task){
+        timers.schedule(deadline, task);
+    }
+
+    /**
+     * Starts passing datagrams from {@code channel} to {@code receiver}.
+     * It may be invoked from this thread only.
+     */
+    public void register(DatagramChannel channel, Receiver receiver) throws IOException {
+        SelectionKey cancelled = channel.keyFor(selector);
+        if(cancelled != null && !cancelled.isValid())
+            selector.selectNow();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, receiver);
+    }
+
+    /**
+     * Stops serving {@code channel}. It may be invoked from this thread only.
+     */
+    public void unregister(DatagramChannel channel){
+        SelectionKey key = channel.keyFor(selector);
+        if(key != null)
+            key.cancel();
+    }
+
+    /**
+     * Returns interface, which multicast datagrams are sent and received on:
+     * the first active interface with an IPv4 address, which supports multicast,
+     * preferring non-loopback ones.
+     */
+    public static NetworkInterface multicastInterface() throws SocketException {
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while(interfaces.hasMoreElements()){
+            NetworkInterface networkInterface = interfaces.nextElement();
+            if(!networkInterface.isUp() || !networkInterface.supportsMulticast() && !networkInterface.isLoopback())
+                continue;
+            boolean hasIPv4 = false;
+            Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+            while(addresses.hasMoreElements()){
+                if(addresses.nextElement() instanceof Inet4Address)
+                    hasIPv4 = true;
+            }
+            if(!hasIPv4)
+                continue;
+            if(!networkInterface.isLoopback())
+                return networkInterface;
+            if(loopback == null)
+                loopback = networkInterface;
+        }
+        if(loopback == null)
+            throw new SocketException("No interface for multicast");
+        return loopback;
+    }
+
+    @Override
+    public void run() {
+        while(!interrupted()){
+            Action task;
+            for(int i = 0; i < MAX_BATCH && (task = tasks.poll()) != null; i++){
+                try {
+                    task.run();
+                } catch (IOException | RuntimeException e) {
+                    report(e);
+                }
+                runDueTimers();
+            }
+            runDueTimers();
+            long now = System.nanoTime();
+            long timeoutMs = (timers.nextDeadline(now + IDLE_NANOS) - now + 999_999) / 1_000_000;
+            try {
+                if(!tasks.isEmpty() || timeoutMs <= 0)
+                    selector.selectNow();
+                else
+                    selector.select(timeoutMs);
+            } catch (IOException e) {
+                System.err.println(getName() + " stopped, as its selector failed");
+                e.printStackTrace();
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                if(key.isValid() && key.isReadable())
+                    receiveBatch(key);
+            }
+        }
+    }
+
+    private void runDueTimers(){
+        try {
+            timers.runDue(System.nanoTime());
+        } catch (IOException | RuntimeException e) {
+            report(e);
+        }
+    }
+
+    private void receiveBatch(SelectionKey key){
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        Receiver receiver = (Receiver) key.attachment();
+        for(int i = 0; i < MAX_BATCH && key.isValid(); i++){
+            receiveBuffer.clear();
+            try {
+                SocketAddress sender = channel.receive(receiveBuffer);
+                if(sender == null)
+                    return;
+                receiveBuffer.flip();
+                receiver.receive(receiveBuffer, sender);
+            } catch (StreamCorruptedException ignored) {
+            } catch (IOException | RuntimeException e) {
+                report(e);
+            }
+            runDueTimers();
+        }
+    }
+
+    private void report(Exception error){
+        System.err.println(getName() + ": task failed");
+        error.printStackTrace();
+    }
+}
@@ -0,0 +1,174 @@
+package application;
+
+import java.util.Random;
+
+/**
+ * This class represents occupancy grid of the field, which keeps index of its empty cells.
+ * <p>
+ * Cell holds {@link #EMPTY}, {@link #FOOD} or id of the player, owning the snake in this cell, plus one.
+ * Empty cells are kept in a dense array, and position of every cell in this array is kept in another one,
+ * so that a cell is added to or removed from the index by a swap, and a random empty cell is found
+ * in constant time without allocations.
+ * <p>
+ * Emptiness of square windows is answered by a summed-area table of occupied cells, which is rebuilt
+ * lazily, once occupancy has changed since it was built.
+ */
+class OccupancyGrid {
+
+    /**
+     * Value of a cell, which holds neither food nor snake
+     */
+    static final int EMPTY = 0;
+    /**
+     * Value of a cell, which holds food
+     */
+    static final int FOOD = -1;
+
+    private final int width;
+    private final int height;
+    private final int[] cells;
+    /**
+     * Empty cells, the first {@link #freeCount} of which are valid
+     */
+    private final int[] freeCells;
+    /**
+     * Position of every empty cell in {@link #freeCells}, or -1 for occupied cells
+     */
+    private final int[] freePositions;
+    private int freeCount;
+    /**
+     * Number of times a cell became empty or occupied
+     */
+    private int version = 0;
+    /**
+     * Summed-area table: number of occupied cells {@code (x, y)} with {@code x < i} and {@code y < j}
+     * is kept at {@code j * (width + 1) + i}. It is valid, while {@link #sumsVersion} equals {@link #version}.
+     */
+    private final int[] occupiedSums;
+    private int sumsVersion = -1;
+    private int freeSquareRadius = -1;
+    private boolean hasFreeSquare;
+    private int freeSquareVersion = -1;
+
+    OccupancyGrid(int width, int height){
+        this.width = width;
+        this.height = height;
+        cells = new int[width * height];
+        freeCells = new int[width * height];
+        freePositions = new int[width * height];
+        occupiedSums = new int[(width + 1) * (height + 1)];
+        clear();
+    }
+
+    int get(int cell){
+        return cells[cell];
+    }
+
+    void set(int cell, int value){
+        int previous = cells[cell];
+        cells[cell] = value;
+        if(previous == EMPTY && value != EMPTY){
+            int position = freePositions[cell];
+            int last = freeCells[--freeCount];
+            freeCells[position] = last;
+            freePositions[last] = position;
+            freePositions[cell] = -1;
+            version++;
+        }
+        else if(previous != EMPTY && value == EMPTY){
+            freeCells[freeCount] = cell;
+            freePositions[cell] = freeCount++;
+            version++;
+        }
+    }
+
+    /**
+     * Makes every cell empty
+     */
+    void clear(){
+        for(int cell = 0; cell < cells.length; cell++){
+            cells[cell] = EMPTY;
+            freeCells[cell] = cell;
+            freePositions[cell] = cell;
+        }
+        freeCount = cells.length;
+        version++;
+    }
+
+    int freeCount(){
+        return freeCount;
+    }
+
+    /**
+     * Returns a random empty cell. There must be at least one.
+     */
+    int randomFreeCell(Random random){
+        return freeCells[random.nextInt(freeCount)];
+    }
+
+    /**
+     * Draws a random empty cell, which was not drawn before, for sampling without replacement.
+     * Calls for one sampling pass {@code drawn} = 0, 1, 2 and so on, while no cell is set in between.
+     * @param drawn number of cells drawn in this pass, which must be less than {@link #freeCount()}.
+     */
+    int drawFreeCell(Random random, int drawn){
+        int last = freeCount - 1 - drawn;
+        int position = random.nextInt(last + 1);
+        int cell = freeCells[position];
+        int other = freeCells[last];
+        freeCells[position] = other;
+        freePositions[other] = position;
+        freeCells[last] = cell;
+        freePositions[cell] = last;
+        return cell;
+    }
+
+    /**
+     * Checks, whether square with center {@code (x, y)} and side {@code 2 * radius + 1}
+     * lies within the field and has no occupied cells
+     */
+    boolean isFreeSquare(int x, int y, int radius){
+        if(x < radius || y < radius || x + radius >= width || y + radius >= height)
+            return false;
+        if(sumsVersion != version)
+            buildSums();
+        int stride = width + 1;
+        int top = (y - radius) * stride;
+        int bottom = (y + radius + 1) * stride;
+        int left = x - radius;
+        int right = x + radius + 1;
+        return occupiedSums[bottom + right] - occupiedSums[top + right]
+                - occupiedSums[bottom + left] + occupiedSums[top + left] == 0;
+    }
+
+    /**
+     * Checks, whether there is a square, which satisfies {@link #isFreeSquare(int, int, int)}.
+     * The answer is recomputed only once occupancy or {@code radius} changes.
+     */
+    boolean hasFreeSquare(int radius){
+        if(freeSquareVersion != version || freeSquareRadius != radius){
+            hasFreeSquare = false;
+            for(int y = radius; y + radius < height && !hasFreeSquare; y++){
+                for(int x = radius; x + radius < width && !hasFreeSquare; x++){
+                    hasFreeSquare = isFreeSquare(x, y, radius);
+                }
+            }
+            freeSquareVersion = version;
+            freeSquareRadius = radius;
+        }
+        return hasFreeSquare;
+    }
+
+    private void buildSums(){
+        int stride = width + 1;
+        for(int y = 0; y < height; y++){
+            int rowSum = 0;
+            for(int x = 0; x < width; x++){
+                if(cells[y * width + x] != EMPTY)
+                    rowSum++;
+                occupiedSums[(y + 1) * stride + x + 1] = occupiedSums[y * stride + x + 1] + rowSum;
+            }
+        }
+        sumsVersion = version;
+    }
+}
@@ -0,0 +1,83 @@
+package application;
+
+import java.util.function.Consumer;
+
+/**
+ * This class represents window of messages, sent to a single peer and not acknowledged yet, indexed by their seq.
+ * <p>
+ * Message with seq {@code s} occupies slot {@code s & (capacity - 1)}, so that it is found in constant time.
+ * Slot of a released message may be taken by a newer one, while acknowledgement of the released message
+ * is still recognized, until its slot is taken. If a slot is taken by a message, which is still resent,
+ * the window doubles, up to {@link #MAX_CAPACITY} slots.
+ */
+class ResendWindow<T extends ResendWindow.Entry> {
+
+    interface Entry {
+        int seq();
+
+        /**
+         * Whether the message is acknowledged or no longer needed, so that it is not resent
+         */
+        boolean isReleased();
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_CAPACITY = 4096;
+
+    private Object[] slots = new Object[INITIAL_CAPACITY];
+
+    /**
+     * Puts {@code entry} to the window.
+     * @return message, which is still resent, but was pushed out of the full window, or {@code null}.
+     */
+    T put(T entry){
+        T previous = get(entry.seq() & (slots.length - 1));
+        if(previous != null && !previous.isReleased() && slots.length < MAX_CAPACITY){
+            grow();
+            return put(entry);
+        }
+        slots[entry.seq() & (slots.length - 1)] = entry;
+        return previous == null || previous.isReleased() ? null : previous;
+    }
+
+    /**
+     * Removes message with {@code seq} from the window.
+     * @return removed message or {@code null}, if there is no such message.
+     */
+    T remove(int seq){
+        int index = seq & (slots.length - 1);
+        T entry = get(index);
+        if(entry == null || entry.seq() != seq)
+            return null;
+        slots[index] = null;
+        return entry;
+    }
+
+    /**
+     * Performs {@code action} for every message in the window, which is still resent
+     */
+    void forEachUnreleased(Consumer<T> action){
+        for(int i = 0; i < slots.length; i++){
+            T entry = get(i);
+            if(entry != null && !entry.isReleased())
+                action.accept(entry);
+        }
+    }
+
+    private void grow(){
+        Object[] oldSlots = slots;
+        slots = new Object[oldSlots.length * 2];
+        for(Object slot: oldSlots){
+            if(slot == null)
+                continue;
+            @SuppressWarnings("unchecked")
+            T entry = (T) slot;
+            slots[entry.seq() & (slots.length - 1)] = entry;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T get(int index){
+        return (T) slots[index];
+    }
+}
@@ -0,0 +1,257 @@
+package application;
+
+import application.enums.Direction;
+import application.enums.PlayerType;
+import application.gamedata.PlayerInfo;
+
+import java.util.Arrays;
+
+/**
+ * This class steers snakes of {@link PlayerType#ROBOT} players of a game, which is hosted by this node.
+ * <p>
+ * Before every turn each robot chooses among moves, which do not reverse its snake. It never moves into a snake,
+ * avoids cells next to heads of other snakes, where they may move too, and avoids moves, after which less free
+ * cells are reachable than the length of its snake, counted by a flood fill of up to {@link #LOOKAHEAD_CELLS} cells.
+ * Among the rest it follows the shortest path to the nearest food, found by breadth-first search
+ * of up to {@link #SEARCH_CELLS} cells.
+ * <p>
+ * Searches of all robots share a time budget per turn. Robots, which are left without it, only avoid snakes
+ * and heads next to their heads, and the next turn starts from them. Buffers are reused, so steering does not allocate,
+ * once the set of robots does not grow.
+ */
+final class RobotDriver {
+
+    private static final int SEARCH_CELLS = 4096;
+    private static final int LOOKAHEAD_CELLS = 256;
+    private static final Direction[] DIRECTIONS = Direction.values();
+    /**
+     * Value of {@link #headZones}, which marks a cell next to heads of many snakes
+     */
+    private static final int MANY_HEADS = -1;
+
+    private int width;
+    private int height;
+    /**
+     * Cells, which are visited by the current search, are marked by {@link #stamp}
+     */
+    private int[] visited = new int[0];
+    private int stamp = 0;
+    private int[] queue = new int[0];
+    /**
+     * Ordinal of the first move of the search path to every visited cell
+     */
+    private byte[] firstMoves = new byte[0];
+    /**
+     * Cells next to heads of snakes hold id of the player plus one, or {@link #MANY_HEADS}, during {@link #zoneStamp}
+     */
+    private int[] headZones = new int[0];
+    private int[] headZoneStamps = new int[0];
+    private int zoneStamp = 0;
+
+    private int[] robotIds = new int[16];
+    /**
+     * Position of the robot in the list of robots, which searches first on the next turn
+     */
+    private int firstRobot = 0;
+
+    /**
+     * Steers snakes of robots in {@code state} for the next turn
+     * @param budgetNanos time, which searches of robots may take.
+     */
+    void steer(GameState state, long budgetNanos){
+        long start = System.nanoTime();
+        int robotCount = collectRobots(state);
+        if(robotCount == 0)
+            return;
+        prepare(state);
+        OccupancyGrid grid = state.grid();
+        markHeadZones(state);
+
+        int searched = 0;
+        for(int i = 0; i < robotCount; i++){
+            int id = robotIds[(firstRobot + i) % robotCount];
+            GameState.Snake snake = state.snakes.get(id);
+            boolean search = System.nanoTime() - start < budgetNanos;
+            if(search)
+                searched++;
+            Direction direction = search ? choose(grid, snake) : avoid(grid, snake);
+            if(direction != snake.direction())
+                state.changeSnakeDirection(id, direction);
+        }
+        firstRobot = (firstRobot + searched) % robotCount;
+    }
+
+    /**
+     * Puts ids of robots, which have snakes, to {@link #robotIds}
+     * @return number of such robots.
+     */
+    private int collectRobots(GameState state){
+        int count = 0;
+        for(PlayerInfo player: state.players.values()){
+            if(player.type != PlayerType.ROBOT || !state.snakes.containsKey(player.id))
+                continue;
+            if(count == robotIds.length)
+                robotIds = Arrays.copyOf(robotIds, count * 2);
+            robotIds[count++] = player.id;
+        }
+        return count;
+    }
+
+    private void prepare(GameState state){
+        width = state.config.width;
+        height = state.config.height;
+        int cells = width * height;
+        if(visited.length != cells){
+            visited = new int[cells];
+            queue = new int[cells];
+            firstMoves = new byte[cells];
+            headZones = new int[cells];
+            headZoneStamps = new int[cells];
+            stamp = 0;
+            zoneStamp = 0;
+        }
+    }
+
+    private void markHeadZones(GameState state){
+        if(++zoneStamp == Integer.MAX_VALUE){
+            Arrays.fill(headZoneStamps, 0);
+            zoneStamp = 1;
+        }
+        for(GameState.Snake snake: state.snakes.values()){
+            int head = snake.headCell();
+            for(Direction direction: DIRECTIONS){
+                int cell = neighbour(head, direction);
+                if(headZoneStamps[cell] != zoneStamp){
+                    headZoneStamps[cell] = zoneStamp;
+                    headZones[cell] = snake.playerId + 1;
+                }
+                else if(headZones[cell] != snake.playerId + 1)
+                    headZones[cell] = MANY_HEADS;
+            }
+        }
+    }
+
+    /**
+     * Chooses move of {@code snake} by its surroundings, space ahead and path to food
+     */
+    private Direction choose(OccupancyGrid grid, GameState.Snake snake){
+        int head = snake.headCell();
+        Direction towardsFood = pathToFood(grid, head);
+        int needed = Math.min(snake.length(), LOOKAHEAD_CELLS);
+        Direction best = null;
+        int bestScore = Integer.MIN_VALUE;
+        for(Direction direction: DIRECTIONS){
+            if(direction == snake.neckDirection())
+                continue;
+            int cell = neighbour(head, direction);
+            if(grid.get(cell) > OccupancyGrid.EMPTY)
+                continue;
+            int space = freeSpace(grid, cell);
+            // Room ahead outweighs safety from heads, which outweighs food and space
+            int score = (space >= needed ? 1 << 20 : 0)
+                    + (isNearOtherHead(cell, snake) ? 0 : 1 << 19)
+                    + (direction == towardsFood ? 1 << 18 : 0)
+                    + space * 2
+                    + (direction == snake.direction() ? 1 : 0);
+            if(score > bestScore){
+                bestScore = score;
+                best = direction;
+            }
+        }
+        return best == null ? snake.direction() : best;
+    }
+
+    /**
+     * Chooses move of {@code snake} by the cells next to its head only
+     */
+    private Direction avoid(OccupancyGrid grid, GameState.Snake snake){
+        int head = snake.headCell();
+        Direction best = null;
+        int bestScore = -1;
+        for(Direction direction: DIRECTIONS){
+            if(direction == snake.neckDirection())
+                continue;
+            int cell = neighbour(head, direction);
+            if(grid.get(cell) > OccupancyGrid.EMPTY)
+                continue;
+            int score = (isNearOtherHead(cell, snake) ? 0 : 2) + (direction == snake.direction() ? 1 : 0);
+            if(score > bestScore){
+                bestScore = score;
+                best = direction;
+            }
+        }
+        return best == null ? snake.direction() : best;
+    }
+
+    private boolean isNearOtherHead(int cell, GameState.Snake snake){
+        return headZoneStamps[cell] == zoneStamp && headZones[cell] != snake.playerId + 1;
+    }
+
+    /**
+     * Finds the first move of the shortest path from {@code head} to food through empty cells
+     * @return the move or {@code null}, if no food is found within {@link #SEARCH_CELLS} cells.
+     */
+    private Direction pathToFood(OccupancyGrid grid, int head){
+        nextStamp();
+        visited[head] = stamp;
+        int tail = 0;
+        for(Direction direction: DIRECTIONS){
+            int cell = neighbour(head, direction);
+            if(visited[cell] == stamp || grid.get(cell) > OccupancyGrid.EMPTY)
+                continue;
+            if(grid.get(cell) == OccupancyGrid.FOOD)
+                return direction;
+            visited[cell] = stamp;
+            firstMoves[cell] = (byte) direction.ordinal();
+            queue[tail++] = cell;
+        }
+        for(int front = 0; front < tail && tail < SEARCH_CELLS; front++){
+            int from = queue[front];
+            for(Direction direction: DIRECTIONS){
+                int cell = neighbour(from, direction);
+                if(visited[cell] == stamp || grid.get(cell) > OccupancyGrid.EMPTY)
+                    continue;
+                if(grid.get(cell) == OccupancyGrid.FOOD)
+                    return DIRECTIONS[firstMoves[from]];
+                visited[cell] = stamp;
+                firstMoves[cell] = firstMoves[from];
+                queue[tail++] = cell;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts cells, which are reachable from {@code start} through cells without snakes, up to {@link #LOOKAHEAD_CELLS}
+     */
+    private int freeSpace(OccupancyGrid grid, int start){
+        nextStamp();
+        visited[start] = stamp;
+        queue[0] = start;
+        int tail = 1;
+        for(int front = 0; front < tail && tail < LOOKAHEAD_CELLS; front++){
+            int from = queue[front];
+            for(Direction direction: DIRECTIONS){
+                int cell = neighbour(from, direction);
+                if(visited[cell] == stamp || grid.get(cell) > OccupancyGrid.EMPTY)
+                    continue;
+                visited[cell] = stamp;
+                queue[tail++] = cell;
+            }
+        }
+        return Math.min(tail, LOOKAHEAD_CELLS);
+    }
+
+    private void nextStamp(){
+        if(++stamp == Integer.MAX_VALUE){
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+    }
+
+    private int neighbour(int cell, Direction direction){
+        int x = Math.floorMod(cell % width + direction.x, width);
+        int y = Math.floorMod(cell / width + direction.y, height);
+        return y * width + x;
+    }
+}
@@ -0,0 +1,132 @@
+package application;
+
+import application.gamedata.GameConfig;
+import application.transport.ChunkedTransport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class hosts many games, called rooms, on a single channel.
+ * <p>
+ * Every room is a master without a snake of its own, which announces itself with its room id.
+ * Rooms are spread over a pool of {@link NetworkLoop}s, which serve as schedulers:
+ * turns and timed tasks of a room always run on the same loop, so a room needs no locking.
+ * Shared channel is served by a separate loop, which routes datagrams to rooms by room id of their frames.
+ * <p>
+ * Room, which fails with an unexpected error, is stopped and closed, while other rooms go on.
+ */
+public class RoomManager implements NetworkLoop.Receiver {
+
+    /**
+     * Room ids lie between 0 and this number, exclusive
+     */
+    public static final int MAX_ROOMS = 1 << 16;
+
+    private static class Room {
+        private final ApplicationControlThread controller;
+        private final NetworkLoop loop;
+
+        private Room(ApplicationControlThread controller, NetworkLoop loop) {
+            this.controller = controller;
+            this.loop = loop;
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final GameView view;
+    private final NetworkLoop router;
+    private final NetworkLoop[] schedulers;
+    private final ConcurrentHashMap<Integer, Room> rooms = new ConcurrentHashMap<>();
+    private int nextRoomId = 0;
+    private int nextScheduler = 0;
+
+    /**
+     * @param view view, which every room reports to. It is invoked from many threads.
+     * @param threads number of scheduler threads.
+     */
+    public RoomManager(DatagramChannel channel, GameView view, int threads) throws IOException {
+        this.channel = channel;
+        this.view = view;
+        router = new NetworkLoop();
+        router.setName("Room Router");
+        schedulers = new NetworkLoop[threads];
+        for(int i = 0; i < threads; i++){
+            schedulers[i] = new NetworkLoop();
+            schedulers[i].setName("Room Scheduler " + i);
+        }
+    }
+
+    public void start(){
+        for(NetworkLoop scheduler: schedulers){
+            scheduler.start();
+        }
+        router.start();
+        router.execute(() -> router.register(channel, this));
+    }
+
+    /**
+     * Opens a new room. It may be invoked from any thread.
+     * @return id of the room.
+     * @throws IllegalStateException if there are {@link #MAX_ROOMS} rooms already.
+     */
+    public synchronized int openRoom(GameConfig config, String name) throws IOException {
+        if(rooms.size() == MAX_ROOMS)
+            throw new IllegalStateException("Too many rooms");
+        while(rooms.containsKey(nextRoomId)){
+            nextRoomId = (nextRoomId + 1) % MAX_ROOMS;
+        }
+        int roomId = nextRoomId;
+        nextRoomId = (nextRoomId + 1) % MAX_ROOMS;
+        NetworkLoop loop = schedulers[nextScheduler];
+        nextScheduler = (nextScheduler + 1) % schedulers.length;
+        ApplicationControlThread controller = new ApplicationControlThread(config, view, loop, channel, name, false, roomId);
+        Room room = new Room(controller, loop);
+        controller.onFailure(() -> {
+            if(rooms.remove(roomId, room))
+                System.err.println("Room " + roomId + " is closed after an error");
+        });
+        rooms.put(roomId, room);
+        controller.startShared();
+        return roomId;
+    }
+
+    /**
+     * Closes room {@code roomId}. It may be invoked from any thread.
+     */
+    public synchronized void closeRoom(int roomId){
+        Room room = rooms.remove(roomId);
+        if(room != null)
+            room.controller.stopShared();
+    }
+
+    /**
+     * Adds up to {@code count} robot players to room {@code roomId}. It may be invoked from any thread.
+     */
+    public void addRobots(int roomId, int count){
+        Room room = rooms.get(roomId);
+        if(room != null)
+            room.controller.addRobots(count);
+    }
+
+    public int roomCount(){
+        return rooms.size();
+    }
+
+    /**
+     * Passes a copy of {@code datagram} to the loop of its room
+     */
+    @Override
+    public void receive(ByteBuffer datagram, SocketAddress sender) throws IOException {
+        Room room = rooms.get(ChunkedTransport.roomOf(datagram));
+        if(room == null)
+            return;
+        ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+        copy.put(datagram);
+        copy.flip();
+        room.loop.execute(() -> room.controller.receive(copy, sender));
+    }
+}
@@ -0,0 +1,57 @@
+package application;
+
+import application.enums.Direction;
+import application.enums.NodeRole;
+import application.enums.PlayerType;
+import application.gamedata.GameConfig;
+import application.gamedata.PlayerInfo;
+
+import java.util.Random;
+
+/**
+ * This class represents a game without network, which benchmarks play.
+ * <p>
+ * It is hosted without a snake of the host by players {@code 1..snakeCount}. Their snakes steer at random
+ * and are respawned, when they die, so their number stays close to {@code snakeCount}.
+ */
+final class SimulatedGame {
+
+    /**
+     * Probability, with which a snake steers on a turn
+     */
+    private static final double STEER_PROB = 0.2;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    final GameState state;
+    private final int snakeCount;
+    private final Random rand;
+
+    /**
+     * Creates a game, whose snakes appear on the first {@link #turn()}
+     */
+    SimulatedGame(GameConfig config, int snakeCount, long seed){
+        PlayerInfo host = new PlayerInfo("Host", 0, "", 0, NodeRole.MASTER, PlayerType.HUMAN);
+        this.state = new GameState(config, host, false);
+        this.snakeCount = snakeCount;
+        this.rand = new Random(seed);
+        for(int id = 1; id <= snakeCount; id++){
+            state.players.put(id, new PlayerInfo("Bot" + id, id, "", 0, NodeRole.NORMAL, PlayerType.ROBOT));
+        }
+    }
+
+    /**
+     * Steers snakes, makes a turn and respawns snakes, which died on it
+     */
+    void turn(){
+        for(GameState.Snake snake: state.snakes.values()){
+            if(rand.nextDouble() < STEER_PROB)
+                state.changeSnakeDirection(snake.playerId, DIRECTIONS[rand.nextInt(DIRECTIONS.length)]);
+        }
+        state.changeState();
+        for(int id = 1; id <= snakeCount && state.snakes.size() < snakeCount; id++){
+            if(!state.snakes.containsKey(id))
+                state.addNewSnake(id);
+        }
+    }
+}
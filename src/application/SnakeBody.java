@@ -0,0 +1,127 @@
+package application;
+
+import application.enums.Direction;
+
+/**
+ * This class represents body of a snake: its head and its key points, kept in a ring buffer of ints.
+ * <p>
+ * Key point is a straight segment of the snake, which leads from the previous key point towards the tail.
+ * It is packed as its length, shifted by two bits, and ordinal of its {@link Direction} in two lowest bits,
+ * which is also its wire format. Head and tail of the body are changed in constant time without allocations,
+ * unless the buffer has to grow.
+ */
+class SnakeBody {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private int headX, headY;
+    /**
+     * Ring buffer of key points, size of which is a power of two
+     */
+    private int[] keyPoints;
+    private int first = 0;
+    private int count = 0;
+
+    SnakeBody(int headX, int headY, int expectedKeyPoints){
+        this.headX = headX;
+        this.headY = headY;
+        this.keyPoints = new int[Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(expectedKeyPoints, 1)) << 1)];
+    }
+
+    /**
+     * Copies {@code other} body
+     */
+    SnakeBody(SnakeBody other){
+        this(other.headX, other.headY, other.count);
+        for(int i = 0; i < other.count; i++){
+            keyPoints[i] = other.keyPoint(i);
+        }
+        count = other.count;
+    }
+
+    static int pack(int length, Direction direction){
+        return length << 2 | direction.ordinal();
+    }
+
+    static int lengthOf(int keyPoint){
+        return keyPoint >>> 2;
+    }
+
+    static Direction directionOf(int keyPoint){
+        return DIRECTIONS[keyPoint & 0b11];
+    }
+
+    int headX(){
+        return headX;
+    }
+
+    int headY(){
+        return headY;
+    }
+
+    int keyPointCount(){
+        return count;
+    }
+
+    /**
+     * Returns key point {@code index}, counting from the head
+     */
+    int keyPoint(int index){
+        return keyPoints[(first + index) & (keyPoints.length - 1)];
+    }
+
+    /**
+     * Appends a key point at the tail
+     */
+    void addLast(int keyPoint){
+        if(count == keyPoints.length)
+            grow();
+        keyPoints[(first + count++) & (keyPoints.length - 1)] = keyPoint;
+    }
+
+    /**
+     * Moves head one cell in {@code direction}, which must not lead back into the first key point
+     */
+    void moveHead(Direction direction, int width, int height){
+        int backwards = direction.ordinal() ^ 1;
+        if(count > 0 && (keyPoints[first] & 0b11) == backwards){
+            keyPoints[first] += 1 << 2;
+        }
+        else {
+            if(count == keyPoints.length)
+                grow();
+            first = (first - 1) & (keyPoints.length - 1);
+            keyPoints[first] = pack(1, DIRECTIONS[backwards]);
+            count++;
+        }
+        headX = Math.floorMod(headX + direction.x, width);
+        headY = Math.floorMod(headY + direction.y, height);
+    }
+
+    /**
+     * Lengthens the last key point by one cell
+     */
+    void growTail(){
+        keyPoints[(first + count - 1) & (keyPoints.length - 1)] += 1 << 2;
+    }
+
+    /**
+     * Shortens the last key point by one cell, removing it, once it is empty
+     */
+    void cutTail(){
+        int last = (first + count - 1) & (keyPoints.length - 1);
+        keyPoints[last] -= 1 << 2;
+        if(lengthOf(keyPoints[last]) == 0)
+            count--;
+    }
+
+    private void grow(){
+        int[] grown = new int[keyPoints.length * 2];
+        for(int i = 0; i < count; i++){
+            grown[i] = keyPoint(i);
+        }
+        keyPoints = grown;
+        first = 0;
+    }
+}
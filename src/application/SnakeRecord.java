@@ -0,0 +1,92 @@
+package application;
+
+import application.enums.Direction;
+import application.messages.MessageCodec;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a snake, detached from any {@link GameState}.
+ * <p>
+ * It is used to transfer snakes over the network.
+ */
+class SnakeRecord {
+    final int playerId;
+    final GameState.SnakeState state;
+    final Direction direction;
+    final SnakeBody body;
+
+    SnakeRecord(int playerId, GameState.SnakeState state, Direction direction, SnakeBody body) {
+        this.playerId = playerId;
+        this.state = state;
+        this.direction = direction;
+        this.body = body;
+    }
+
+    /**
+     * Checks, that head of the snake lies inside of a field of given size, and that the snake is not longer than the field.
+     */
+    boolean fits(int width, int height){
+        if(body.headX() < 0 || body.headY() < 0 || body.headX() >= width || body.headY() >= height)
+            return false;
+        int length = 1;
+        for(int i = 0; i < body.keyPointCount(); i++){
+            length += SnakeBody.lengthOf(body.keyPoint(i));
+        }
+        return length <= width * height;
+    }
+
+    /**
+     * Writes a snake to {@code buf}.
+     * <p>
+     * Key points of a snake are written as varints, holding length of a segment
+     * and ordinal of its direction in two lowest bits.
+     */
+    static void write(ByteBuffer buf, int playerId, GameState.SnakeState state, Direction direction, SnakeBody body){
+        MessageCodec.putVarInt(buf, playerId);
+        buf.put((byte) state.ordinal());
+        buf.put((byte) direction.ordinal());
+        MessageCodec.putVarInt(buf, body.keyPointCount() + 1);
+        MessageCodec.putVarInt(buf, body.headX());
+        MessageCodec.putVarInt(buf, body.headY());
+        for (int i = 0; i < body.keyPointCount(); i++) {
+            MessageCodec.putVarInt(buf, body.keyPoint(i));
+        }
+    }
+
+    void writeTo(ByteBuffer buf){
+        write(buf, playerId, state, direction, body);
+    }
+
+    /**
+     * Reads a snake, written by {@link #write}.
+     * @param maxCells number of cells of the field, which the snake may not be longer than.
+     * @throws StreamCorruptedException if the snake has more key points or cells than the field.
+     */
+    static SnakeRecord readFrom(ByteBuffer buf, int maxCells) throws StreamCorruptedException {
+        Direction[] directions = Direction.values();
+        int playerId = MessageCodec.getVarInt(buf);
+        GameState.SnakeState state = GameState.SnakeState.values()[buf.get()];
+        Direction direction = directions[buf.get()];
+        int keyPointsCount = MessageCodec.getVarInt(buf);
+        if(keyPointsCount < 2)
+            throw new IllegalArgumentException("Snake is too short");
+        if(keyPointsCount - 1 > maxCells)
+            throw new StreamCorruptedException("Snake has more key points than the field has cells");
+        int headX = MessageCodec.getVarInt(buf);
+        int headY = MessageCodec.getVarInt(buf);
+        SnakeBody body = new SnakeBody(headX, headY, Math.min(keyPointsCount - 1, buf.remaining()));
+        int length = 1;
+        for(int i = 1; i < keyPointsCount; i++){
+            int packed = MessageCodec.getVarInt(buf);
+            if(SnakeBody.lengthOf(packed) == 0)
+                throw new IllegalArgumentException("Empty key point");
+            length += SnakeBody.lengthOf(packed);
+            if(length > maxCells)
+                throw new StreamCorruptedException("Snake is longer than the field");
+            body.addLast(packed);
+        }
+        return new SnakeRecord(playerId, state, direction, body);
+    }
+}
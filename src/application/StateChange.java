@@ -0,0 +1,74 @@
+package application;
+
+import application.messages.MessageCodec;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * This class represents changes of a {@link GameState}, made by a single turn of the game
+ * together with events, which happened since the previous turn.
+ * <p>
+ * Replaying changes in order turns a copy of the state into the state, which produced them.
+ */
+class StateChange {
+    /**
+     * Id of the state, produced by this change
+     */
+    int stateId;
+    /**
+     * Whether a new game was started during this turn
+     */
+    boolean reset = false;
+    /**
+     * Moves of the snakes, each packed as {@code playerId << 3 | grown << 2 | direction ordinal}
+     */
+    final ArrayList<Integer> moves = new ArrayList<>();
+    final ArrayList<Integer> deaths = new ArrayList<>();
+    final ArrayList<Integer> zombies = new ArrayList<>();
+    /**
+     * Ids of the snakes, created during this turn.
+     * These are not written to the network, as {@link StateDelta} carries created snakes as a whole.
+     */
+    final ArrayList<Integer> spawns = new ArrayList<>();
+    final ArrayList<Integer> foodRemoved = new ArrayList<>();
+    final ArrayList<Integer> foodAdded = new ArrayList<>();
+
+    void writeTo(ByteBuffer buf){
+        MessageCodec.putVarInt(buf, stateId);
+        buf.put((byte) (reset ? 1 : 0));
+        writeList(buf, moves);
+        writeList(buf, deaths);
+        writeList(buf, zombies);
+        writeList(buf, foodRemoved);
+        writeList(buf, foodAdded);
+    }
+
+    static StateChange readFrom(ByteBuffer buf) throws StreamCorruptedException {
+        StateChange change = new StateChange();
+        change.stateId = MessageCodec.getVarInt(buf);
+        change.reset = buf.get() != 0;
+        readList(buf, change.moves);
+        readList(buf, change.deaths);
+        readList(buf, change.zombies);
+        readList(buf, change.foodRemoved);
+        readList(buf, change.foodAdded);
+        return change;
+    }
+
+    private static void writeList(ByteBuffer buf, ArrayList<Integer> list){
+        MessageCodec.putVarInt(buf, list.size());
+        for(Integer value: list){
+            MessageCodec.putVarInt(buf, value);
+        }
+    }
+
+    private static void readList(ByteBuffer buf, ArrayList<Integer> list) throws StreamCorruptedException {
+        int size = MessageCodec.getCount(buf);
+        list.ensureCapacity(size);
+        for(int i = 0; i < size; i++){
+            list.add(MessageCodec.getVarInt(buf));
+        }
+    }
+}
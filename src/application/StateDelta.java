@@ -0,0 +1,86 @@
+package application;
+
+import application.gamedata.GameConfig;
+import application.messages.MessageCodec;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents difference between two states of the same game.
+ * <p>
+ * It holds changes, made by every turn after {@code baseStateId} up to {@code stateId},
+ * snakes created during these turns and current scores of the players.
+ * Objects of this class are created by {@link GameState#deltaSince(int)}
+ * and applied by {@link GameState#applyDelta(StateDelta)}.
+ */
+public class StateDelta {
+    /**
+     * Number of cells of the largest field. Delta does not carry config, so its snakes are checked against it on read,
+     * and against the field of the state on {@link GameState#applyDelta(StateDelta)}.
+     */
+    private static final int MAX_CELLS = GameConfig.maximums.width * GameConfig.maximums.height;
+
+    public final int baseStateId;
+    public final int stateId;
+    final List<StateChange> changes;
+    final List<SnakeRecord> snakes;
+    /**
+     * Pairs of player id and score of this player
+     */
+    final int[] scores;
+
+    StateDelta(int baseStateId, int stateId, List<StateChange> changes, List<SnakeRecord> snakes, int[] scores) {
+        this.baseStateId = baseStateId;
+        this.stateId = stateId;
+        this.changes = changes;
+        this.snakes = snakes;
+        this.scores = scores;
+    }
+
+    public void writeTo(ByteBuffer buf){
+        MessageCodec.putVarInt(buf, baseStateId);
+        MessageCodec.putVarInt(buf, stateId);
+        MessageCodec.putVarInt(buf, changes.size());
+        for(StateChange change: changes){
+            change.writeTo(buf);
+        }
+        MessageCodec.putVarInt(buf, snakes.size());
+        for(SnakeRecord snake: snakes){
+            snake.writeTo(buf);
+        }
+        MessageCodec.putVarInt(buf, scores.length / 2);
+        for(int score: scores){
+            MessageCodec.putVarInt(buf, score);
+        }
+    }
+
+    public static StateDelta readFrom(ByteBuffer buf) throws StreamCorruptedException {
+        int baseStateId = MessageCodec.getVarInt(buf);
+        int stateId = MessageCodec.getVarInt(buf);
+        int changesCount = MessageCodec.getCount(buf);
+        if(changesCount > GameState.CHANGES_KEPT)
+            throw new StreamCorruptedException("Delta has more changes than are kept");
+        if(changesCount != stateId - baseStateId)
+            throw new IllegalArgumentException("Delta does not cover all turns");
+        List<StateChange> changes = new ArrayList<>(changesCount);
+        for(int i = 0; i < changesCount; i++){
+            changes.add(StateChange.readFrom(buf));
+        }
+        int snakesCount = MessageCodec.getCount(buf);
+        List<SnakeRecord> snakes = new ArrayList<>(snakesCount);
+        for(int i = 0; i < snakesCount; i++){
+            snakes.add(SnakeRecord.readFrom(buf, MAX_CELLS));
+        }
+        int scoresCount = MessageCodec.getCount(buf);
+        if(scoresCount > buf.remaining() / 2)
+            throw new StreamCorruptedException("Scores are longer than the message");
+        int[] scores = new int[scoresCount * 2];
+        for(int i = 0; i < scores.length; i++){
+            scores[i] = MessageCodec.getVarInt(buf);
+        }
+        return new StateDelta(baseStateId, stateId, changes, snakes, scores);
+    }
+}
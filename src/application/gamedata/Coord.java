@@ -11,6 +11,14 @@ public class Coord  implements Serializable {
         this.x = x;
         this.y = y;
     }
+
+    /**
+     * Returns coordinate of cell {@code cell} of a field with width {@code width}
+     */
+    public static Coord ofCell(int cell, int width){
+        return new Coord(cell % width, cell / width);
+    }
+
     public Direction dirOfRelative(){
         if(x < 0)
             return Direction.LEFT;
@@ -31,4 +39,9 @@ public class Coord  implements Serializable {
         Coord coord = (Coord)obj;
         return (this.x == coord.x) && (this.y == coord.y);
     }
+
+    @Override
+    public int hashCode(){
+        return 31 * x + y;
+    }
 }
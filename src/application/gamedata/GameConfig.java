@@ -48,4 +48,18 @@ public class GameConfig implements Serializable {
         this.pingDelayMs = pingDelayMs;
         this.nodeTimeoutMs = nodeTimeoutMs;
     }
+
+    /**
+     * Returns whether every parameter lies between {@link #minimals} and {@link #maximums}
+     */
+    public boolean isWithinLimits(){
+        return minimals.width <= width && width <= maximums.width
+                && minimals.height <= height && height <= maximums.height
+                && minimals.foodStatic <= foodStatic && foodStatic <= maximums.foodStatic
+                && minimals.foodPerPlayer <= foodPerPlayer && foodPerPlayer <= maximums.foodPerPlayer
+                && minimals.iterationDelayMs <= iterationDelayMs && iterationDelayMs <= maximums.iterationDelayMs
+                && minimals.deadFoodProb <= deadFoodProb && deadFoodProb <= maximums.deadFoodProb
+                && minimals.pingDelayMs <= pingDelayMs && pingDelayMs <= maximums.pingDelayMs
+                && minimals.nodeTimeoutMs <= nodeTimeoutMs && nodeTimeoutMs <= maximums.nodeTimeoutMs;
+    }
 }
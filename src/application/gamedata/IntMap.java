@@ -0,0 +1,70 @@
+package application.gamedata;
+
+import java.util.Arrays;
+
+/**
+ * This class represents map from non-negative int keys to int values.
+ * <p>
+ * It is kept in the same kind of table as {@link IntSet}, with values in a parallel array.
+ * Absent keys are reported by a value, chosen by the user of the map.
+ */
+public class IntMap {
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+    private final int missingValue;
+
+    /**
+     * @param expectedSize number of entries, which the map holds without growing.
+     * @param missingValue value, returned for absent keys.
+     */
+    public IntMap(int expectedSize, int missingValue){
+        this.missingValue = missingValue;
+        keys = new int[IntSet.capacityFor(expectedSize)];
+        values = new int[keys.length];
+        Arrays.fill(keys, IntSet.FREE);
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, unless {@code key} is mapped already
+     * @return value, which {@code key} was mapped to, or missing value.
+     * @throws IllegalArgumentException if {@code key} is negative.
+     */
+    public int putIfAbsent(int key, int value){
+        if(key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+        if((size + 1) * 2 > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int slot = IntSet.slotOf(key, mask);
+        while(keys[slot] != IntSet.FREE){
+            if(keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return missingValue;
+    }
+
+    private void grow(){
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[keys.length];
+        Arrays.fill(keys, IntSet.FREE);
+        int mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == IntSet.FREE)
+                continue;
+            int slot = IntSet.slotOf(oldKeys[i], mask);
+            while(keys[slot] != IntSet.FREE){
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
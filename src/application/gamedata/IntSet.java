@@ -0,0 +1,170 @@
+package application.gamedata;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * This class represents set of non-negative ints, such as cell indices of the field.
+ * <p>
+ * Elements are kept in an open-addressing table with linear probing, so that adding, removing
+ * and checking an element take constant time on average and allocate nothing, unless the table grows.
+ */
+public class IntSet implements Serializable {
+
+    /**
+     * Value of a slot, which holds no element
+     */
+    static final int FREE = -1;
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * Table, size of which is a power of two, at most half full
+     */
+    private int[] slots;
+    private int size = 0;
+
+    public IntSet(){
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of elements, which the set holds without growing.
+     */
+    public IntSet(int expectedSize){
+        slots = new int[capacityFor(expectedSize)];
+        Arrays.fill(slots, FREE);
+    }
+
+    static int capacityFor(int expectedSize){
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2){
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns home slot of {@code key} in a table with {@code mask + 1} slots
+     */
+    static int slotOf(int key, int mask){
+        int hash = key * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    /**
+     * Checks, whether slot {@code candidate} may hold an element with home slot {@code home}
+     * in place of the element, removed from slot {@code removed}, without breaking its probe sequence
+     */
+    private static boolean mayShift(int home, int removed, int candidate){
+        if(removed <= candidate)
+            return home <= removed || home > candidate;
+        return home <= removed && home > candidate;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean contains(int key){
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return {@code false}, if the set already holds {@code key}.
+     * @throws IllegalArgumentException if {@code key} is negative.
+     */
+    public boolean add(int key){
+        if(key < 0)
+            throw new IllegalArgumentException("Negative element " + key);
+        if((size + 1) * 2 > slots.length)
+            grow();
+        int mask = slots.length - 1;
+        int slot = slotOf(key, mask);
+        while(slots[slot] != FREE){
+            if(slots[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = key;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return {@code false}, if the set does not hold {@code key}.
+     */
+    public boolean remove(int key){
+        int removed = indexOf(key);
+        if(removed < 0)
+            return false;
+        int mask = slots.length - 1;
+        int candidate = removed;
+        while(true){
+            candidate = (candidate + 1) & mask;
+            if(slots[candidate] == FREE)
+                break;
+            if(mayShift(slotOf(slots[candidate], mask), removed, candidate)){
+                slots[removed] = slots[candidate];
+                removed = candidate;
+            }
+        }
+        slots[removed] = FREE;
+        size--;
+        return true;
+    }
+
+    public void clear(){
+        Arrays.fill(slots, FREE);
+        size = 0;
+    }
+
+    /**
+     * Passes every element to {@code action} in no particular order
+     */
+    public void forEach(IntConsumer action){
+        for(int key: slots){
+            if(key != FREE)
+                action.accept(key);
+        }
+    }
+
+    public int[] toArray(){
+        int[] elements = new int[size];
+        int i = 0;
+        for(int key: slots){
+            if(key != FREE)
+                elements[i++] = key;
+        }
+        return elements;
+    }
+
+    private int indexOf(int key){
+        if(key < 0)
+            return -1;
+        int mask = slots.length - 1;
+        int slot = slotOf(key, mask);
+        while(slots[slot] != FREE){
+            if(slots[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow(){
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        Arrays.fill(slots, FREE);
+        int mask = slots.length - 1;
+        for(int key: old){
+            if(key == FREE)
+                continue;
+            int slot = slotOf(key, mask);
+            while(slots[slot] != FREE){
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = key;
+        }
+    }
+}
@@ -24,6 +24,11 @@ public class PlayerInfo implements Serializable {
         this.type = type;
     }
 
+    public PlayerInfo(String name, int id, String ipAddress, int port, NodeRole role, PlayerType type, int score) {
+        this(name, id, ipAddress, port, role, type);
+        this.score = score;
+    }
+
     public int getScore(){
         return score;
     }
@@ -36,4 +41,8 @@ public class PlayerInfo implements Serializable {
         score = 0;
     }
 
+    public void setScore(int score){
+        this.score = score;
+    }
+
 }
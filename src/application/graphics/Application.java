@@ -1,11 +1,12 @@
 package application.graphics;
 
 import application.ApplicationControlThread;
-import application.GameState;
-import application.JoinableGameReceiverThread;
+import application.GameSnapshot;
+import application.GameView;
+import application.JoinableGameReceiver;
+import application.NetworkLoop;
 import application.enums.Direction;
 import application.enums.NodeRole;
-import application.gamedata.Coord;
 import application.gamedata.GameConfig;
 import application.gamedata.PlayerInfo;
 import application.messages.AnnouncementMessage;
@@ -18,11 +19,12 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.TreeMap;
 
-public class Application {
+public class Application implements GameView {
 
     private final JFrame window;
     private JPanel scorePanel;
@@ -31,7 +33,7 @@ public class Application {
     private SnakeCanvas snakeCanvas;
 
     private ApplicationControlThread gameController = null;
-    private JoinableGameReceiverThread joinReceiverThread;
+    private final JoinableGameReceiver joinReceiver;
 
 
     private TreeMap<Integer, JLabel> playerLabels = new TreeMap<>();
@@ -60,14 +62,18 @@ public class Application {
     private final int gameScoreWidth = 400;
     private final int gameHeight = 1000;
 
-    private final MulticastSocket recvGameMulticastSocket;
-    private final MulticastSocket controlMulticastSocket;
+    /**
+     * Thread, which serves both channels of the application
+     */
+    private final NetworkLoop networkLoop;
+    private final DatagramChannel controlChannel;
 
     private class JoinableGame{
         public int masterIndex;
         public Inet4Address masterAddr;
         public int masterPort;
         public GameConfig masterConfig;
+        public int roomId;
         private long lastUpdate;
         private boolean canJoin;
 
@@ -88,57 +94,12 @@ public class Application {
         public final Component turnDurationBottomRigidBox = Box.createRigidArea(new Dimension(0, 5));
         public final JButton join = new JButton("Join");
 
-        private JoinableGame(int masterIndex, Inet4Address masterAddr, int masterPort, GameConfig masterConfig) {
+        private JoinableGame(int masterIndex, Inet4Address masterAddr, int masterPort, GameConfig masterConfig, int roomId) {
             this.masterIndex = masterIndex;
             this.masterAddr = masterAddr;
             this.masterPort = masterPort;
             this.masterConfig = masterConfig;
-        }
-    }
-
-    private class SnakeCanvas extends Canvas{
-        private GameState currentState = null;
-
-        public void paint(Graphics g){
-            super.paint(g);
-            if(currentState == null)
-                return;
-            g.setColor(Color.BLACK);
-            g.drawRect(firstPixX, firstPixY, currentState.config.width * stepPix,
-                    currentState.config.height * stepPix);
-            for(GameState.Snake snake: currentState.snakes.values()){
-                if(snake.getState() == GameState.SnakeState.ALIVE)
-                    g.setColor(Color.BLUE);
-                else if(snake.getState() == GameState.SnakeState.ZOMBIE)
-                    g.setColor(new Color(82, 38, 89));
-                int curX = snake.body.peekFirst().x;
-                int curY = snake.body.peekFirst().y;
-                synchronized (snake){
-                    Coord first = snake.body.removeFirst();
-                    g.fillRect(curX * stepPix + firstPixX, curY * stepPix + firstPixY, stepPix, stepPix);
-                    for(Coord coord: snake.body){
-                        int countToPaint = Math.abs(coord.x) + Math.abs(coord.y);
-                        Direction nextDir = coord.dirOfRelative();
-                        int nextStepX = nextDir.x;
-                        int nextStepY = nextDir.y;
-                        while(countToPaint-- != 0){
-                            curX = Math.floorMod(curX + nextStepX, currentState.config.width);
-                            curY = Math.floorMod(curY + nextStepY, currentState.config.height);
-                            g.fillRect(curX * stepPix + firstPixX, curY * stepPix + firstPixY, stepPix, stepPix);
-                        }
-                    }
-                    snake.body.addFirst(first);
-                }
-            }
-            g.setColor(Color.RED);
-            for(Coord food: currentState.foods){
-                g.fillRect(food.x * stepPix + firstPixX, food.y * stepPix + firstPixY, stepPix, stepPix);
-            }
-            this.setIgnoreRepaint(false);
-        }
-        public void paintState(GameState state){
-            this.currentState = state;
-            this.paint(getGraphics());
+            this.roomId = roomId;
         }
     }
 
@@ -169,21 +130,16 @@ public class Application {
             System.out.println(enumer.nextElement().getHostAddress());
         }*/
 
-        recvGameMulticastSocket = new MulticastSocket(9192);
-        recvGameMulticastSocket.setSoTimeout(3000);
-        recvGameMulticastSocket.setTimeToLive(255);
-        /*recvGameMulticastSocket.setInterface(InetAddress.getByName("192.168.0.10"));
-        System.out.println(recvGameMulticastSocket.getNetworkInterface().getName());*/
+        networkLoop = new NetworkLoop();
+        networkLoop.start();
 
-        recvGameMulticastSocket.joinGroup(InetAddress.getByName("239.192.0.4"));
-        joinReceiverThread = new JoinableGameReceiverThread(this, recvGameMulticastSocket);
-        joinReceiverThread.setName("Join Receiver Thread");
-        joinReceiverThread.start();
+        joinReceiver = new JoinableGameReceiver(this, networkLoop, JoinableGameReceiver.openChannel());
+        joinReceiver.start();
 
-        controlMulticastSocket = new MulticastSocket();
-        controlMulticastSocket.setTimeToLive(255);
-        /*controlMulticastSocket.setInterface(InetAddress.getByName("192.168.0.10"));
-        System.out.println(controlMulticastSocket.getNetworkInterface().getName());*/
+        controlChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+        controlChannel.bind(new InetSocketAddress(0));
+        controlChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 255);
+        controlChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, NetworkLoop.multicastInterface());
 
         window.setVisible(true);
     }
@@ -209,19 +165,16 @@ public class Application {
                     return;
                 int lastIndex = Math.min(30, name.length());
                 name = name.substring(0, lastIndex);
+                joinReceiver.stop();
+                showMenu(MenuIndex.GAME);
+                snakeCanvas.createBufferStrategy(4);
+                initializeGameFieldConstants();
                 try {
-                    recvGameMulticastSocket.leaveGroup(InetAddress.getByName("239.192.0.4"));
+                    gameController = new ApplicationControlThread(currentConfig, appLink, networkLoop, controlChannel, name);
                 } catch (IOException ioException) {
                     ioException.printStackTrace();
                     System.exit(-1);
                 }
-                joinReceiverThread.interrupt();
-                joinReceiverThread = null;
-                showMenu(MenuIndex.GAME);
-                snakeCanvas.createBufferStrategy(4);
-                initializeGameFieldConstants();
-                gameController = new ApplicationControlThread(currentConfig, appLink, controlMulticastSocket, name);
-                gameController.setName("Game Controller");
                 gameController.start();
             }
         });
@@ -497,22 +450,13 @@ public class Application {
         backToMenu.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                gameController.interrupt();
+                gameController.stop();
                 gameController = null;
                 scorePanel.removeAll();
                 playerLabels.clear();
-                try {
-                    recvGameMulticastSocket.joinGroup(InetAddress.getByName("239.192.0.4"));
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
-                    System.exit(-1);
-                }
-                joinReceiverThread = new JoinableGameReceiverThread(appLink, recvGameMulticastSocket);
-                joinReceiverThread.setName("Join Receiver Thread");
-                joinReceiverThread.start();
+                joinReceiver.start();
                 showMenu(MenuIndex.MAIN);
-                snakeCanvas.currentState = null;
-                snakeCanvas.repaint();
+                snakeCanvas.clearState();
             }
         });
         rightGamePanel.add(scorePanel);
@@ -539,10 +483,11 @@ public class Application {
         menuPanels.get(currentMenu).setVisible(true);
     }
 
-    public void paintState(GameState state){
+    @Override
+    public void paintState(GameSnapshot state){
         SwingUtilities.invokeLater(() -> {
             updatePlayerLabels(state);
-            if(state.players.size() != playerLabels.size()) {
+            if(state.playerCount() != playerLabels.size()) {
                 addPlayerLabels(state);
                 window.repaint();
             }
@@ -550,15 +495,17 @@ public class Application {
         });
     }
 
+    @Override
     public void showErrorMessage(String error){
         JOptionPane.showMessageDialog(window, error);
     }
 
-    private void updatePlayerLabels(GameState state){
+    private void updatePlayerLabels(GameSnapshot state){
         ArrayList<Integer> toRemove = new ArrayList<>(playerLabels.size());
         for(Integer id: playerLabels.keySet()){
-            if(state.players.containsKey(id))
-                playerLabels.get(id).setText(state.players.get(id).name + ": " + state.players.get(id).getScore());
+            int player = state.indexOfPlayer(id);
+            if(player >= 0)
+                playerLabels.get(id).setText(state.playerName(player) + ": " + state.playerScore(player));
             else{
                 scorePanel.remove(playerLabels.get(id));
                 toRemove.add(id);
@@ -571,14 +518,14 @@ public class Application {
         }
     }
 
-    private void addPlayerLabels(GameState state){
-        for(PlayerInfo player: state.players.values()){
-            if(!playerLabels.containsKey(player.id)){
-                JLabel label = new JLabel(player.name + ": " + player.getScore());
+    private void addPlayerLabels(GameSnapshot state){
+        for(int player = 0; player < state.playerCount(); player++){
+            if(!playerLabels.containsKey(state.playerId(player))){
+                JLabel label = new JLabel(state.playerName(player) + ": " + state.playerScore(player));
                 label.setAlignmentX(Component.CENTER_ALIGNMENT);
                 scorePanel.add(label);
                 scorePanel.updateUI();
-                playerLabels.put(player.id, label);
+                playerLabels.put(state.playerId(player), label);
             }
         }
     }
@@ -631,7 +578,7 @@ public class Application {
     }
 
     public void processAnnouncementMessage(AnnouncementMessage message, Inet4Address address, int port){
-        long ipaddr = ipaddrToLong(address, port);
+        long ipaddr = ipaddrToLong(address, port, message.roomId);
         if(joinableGames.containsKey(ipaddr))
             updateJoinableGame(message, address, port);
         else
@@ -639,7 +586,7 @@ public class Application {
     }
 
     private void updateJoinableGame(AnnouncementMessage message, Inet4Address address, int port){
-        JoinableGame game = joinableGames.get(ipaddrToLong(address, port));
+        JoinableGame game = joinableGames.get(ipaddrToLong(address, port, message.roomId));
         int masterIndex = -1;
         PlayerInfo master = null;
         for(int i = 0; i < message.players.length; i++){
@@ -655,7 +602,8 @@ public class Application {
         game.masterPort = master.port;
         game.masterConfig = message.config;
         game.canJoin = message.canJoin;
-        game.master.setText(master.name + "[" + address.getHostAddress() + ":" + port + "]");
+        game.master.setText(master.name + "[" + address.getHostAddress() + ":" + port
+                + (message.roomId == 0 ? "" : " #" + message.roomId) + "]");
         game.numOfPlayers.setText(String.valueOf(message.players.length));
         game.fieldSize.setText(message.config.width + "x" + message.config.height);
         game.foodOnField.setText(message.config.foodStatic + " + " + message.config.foodPerPlayer + "x");
@@ -675,8 +623,9 @@ public class Application {
             }
         }
         assert(masterIndex != -1);
-        JoinableGame game = new JoinableGame(masterIndex, address, port, message.config);
-        game.master.setText(master.name + "[" + address.getHostAddress() + ":" + port + "]");
+        JoinableGame game = new JoinableGame(masterIndex, address, port, message.config, message.roomId);
+        game.master.setText(master.name + "[" + address.getHostAddress() + ":" + port
+                + (message.roomId == 0 ? "" : " #" + message.roomId) + "]");
         game.numOfPlayers.setText(String.valueOf(message.players.length));
         game.fieldSize.setText(message.config.width + "x" + message.config.height);
         game.foodOnField.setText(message.config.foodStatic + " + " + message.config.foodPerPlayer + "x");
@@ -709,10 +658,10 @@ public class Application {
                 ApplicationControlThread temp;
                 try {
                     temp = new ApplicationControlThread(
-                            appLink, controlMulticastSocket,
+                            appLink, networkLoop, controlChannel,
                             game.masterConfig,  game.masterAddr,
                             game.masterPort, game.masterIndex,
-                            name
+                            game.roomId, name
                     );
                 } catch(SocketTimeoutException timeout){
                     JOptionPane.showMessageDialog(window, "Server did not answer");
@@ -723,19 +672,12 @@ public class Application {
                     System.exit(-1);
                     return;
                 }
-                try {
-                    recvGameMulticastSocket.leaveGroup(InetAddress.getByName("239.192.0.4"));
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
-                    System.exit(-1);
-                }
-                joinReceiverThread.interrupt();
+                joinReceiver.stop();
                 currentConfig = game.masterConfig;
                 showMenu(MenuIndex.GAME);
                 snakeCanvas.createBufferStrategy(4);
                 initializeGameFieldConstants();
                 gameController = temp;
-                gameController.setName("Game Controller");
                 gameController.start();
             }
         });
@@ -756,7 +698,7 @@ public class Application {
         joinTurnDurationPanel.add(game.turnDuration);
         joinTurnDurationPanel.add(game.turnDurationBottomRigidBox);
         joinButtonPanel.add(game.join);
-        joinableGames.put(ipaddrToLong(address, port), game);
+        joinableGames.put(ipaddrToLong(address, port, message.roomId), game);
         menuPanels.get(MenuIndex.JOIN).updateUI();
     }
 
@@ -771,15 +713,20 @@ public class Application {
         firstPixY += shift;
         lastPixX += shift;
         lastPixY += shift;
+        snakeCanvas.setField(currentConfig, firstPixX, firstPixY, stepPix);
     }
 
-    private long ipaddrToLong(Inet4Address addr, int port){
+    /**
+     * Returns key of a game, made of master's address and port and id of the room
+     */
+    private long ipaddrToLong(Inet4Address addr, int port, int roomId){
         String[] addrBytes = addr.getHostAddress().split("\\.");
         long ipaddrLong = 0;
         for(int i = 0; i < 4; i++){
             ipaddrLong += (Integer.parseInt(addrBytes[3 - i]) & 0b11111111)  << (i * 8);
         }
         ipaddrLong += ((long)(port)) << 32;
+        ipaddrLong += ((long)(roomId)) << 48;
         return ipaddrLong;
     }
 
@@ -0,0 +1,425 @@
+package application.graphics;
+
+import application.GameSnapshot;
+import application.GameState;
+import application.gamedata.GameConfig;
+
+import javax.swing.Timer;
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class represents canvas, which shows the field of the game.
+ * <p>
+ * Field is kept in a back buffer, {@link VolatileImage}, and only cells, which differ between
+ * consecutive snapshots, are repainted in it: new heads, vacated tails, eaten and spawned food.
+ * Back buffer is copied to the screen through a {@link BufferStrategy}, so the canvas is never cleared.
+ * <p>
+ * Frames are drawn on every snapshot and at display refresh rate, while snakes move, by a timer,
+ * which is stopped otherwise. Snake, which made one step between the last two snapshots, is drawn
+ * in the back buffer as it was in the older one, and its head and tail are moved over it by the share of the turn,
+ * which has passed since the newer snapshot arrived. If the next snapshot is late, heads and tails keep moving
+ * for at most {@link #MAX_EXTRAPOLATION} of a turn.
+ * <p>
+ * Canvas is used on the event dispatch thread only.
+ */
+class SnakeCanvas extends Canvas {
+
+    private static final byte EMPTY = 0;
+    private static final byte FOOD = 1;
+    private static final byte ALIVE = 2;
+    private static final byte ZOMBIE = 3;
+    private static final Color[] COLORS = {null, Color.RED, Color.BLUE, new Color(82, 38, 89)};
+    /**
+     * Share of a turn, for which snakes are moved past the latest snapshot
+     */
+    private static final double MAX_EXTRAPOLATION = 0.5;
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    /**
+     * Step of a snake between two snapshots, drawn over the back buffer
+     */
+    private static class Motion {
+        private byte kind;
+        /**
+         * Head cell in the newer snapshot and direction, in which head entered it
+         */
+        private int head, headDx, headDy;
+        /**
+         * Tail cell in the older snapshot, or -1, if the tail did not move, and direction, in which tail left it
+         */
+        private int tail, tailDx, tailDy;
+        /**
+         * Tail cell in the newer snapshot and direction to the next cell of the snake
+         */
+        private int newTail, newTailDx, newTailDy;
+    }
+
+    private GameConfig config = null;
+    private int firstPixX, firstPixY, stepPix;
+
+    private VolatileImage field = null;
+    /**
+     * Kind of every cell, as it is painted in the back buffer
+     */
+    private byte[] shown;
+    /**
+     * Kind of every cell in the snapshot, being painted. Cells outside of it are kept {@link #EMPTY}.
+     */
+    private byte[] target;
+    /**
+     * Cells, which are not empty in {@link #shown}
+     */
+    private int[] occupied = new int[64];
+    private int occupiedCount = 0;
+    /**
+     * Cells, which are not empty in {@link #target}
+     */
+    private int[] nextOccupied = new int[64];
+    private int nextOccupiedCount = 0;
+
+    private GameSnapshot previous = null;
+    private final ArrayList<Motion> motions = new ArrayList<>();
+    private int motionCount = 0;
+    /**
+     * Time, since which motions are drawn, in {@link System#nanoTime()} units
+     */
+    private long motionStartNanos;
+    private long turnNanos;
+    private final Timer frameTimer;
+
+    SnakeCanvas(){
+        int refreshRate = DEFAULT_REFRESH_RATE;
+        if(!GraphicsEnvironment.isHeadless()){
+            int displayRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+            if(displayRate != DisplayMode.REFRESH_RATE_UNKNOWN)
+                refreshRate = displayRate;
+        }
+        frameTimer = new Timer(Math.max(1, 1000 / refreshRate), e -> present());
+        frameTimer.setCoalesce(true);
+    }
+
+    /**
+     * Sets field, which the following snapshots belong to, and clears the canvas
+     */
+    void setField(GameConfig config, int firstPixX, int firstPixY, int stepPix){
+        this.config = config;
+        this.firstPixX = firstPixX;
+        this.firstPixY = firstPixY;
+        this.stepPix = stepPix;
+        shown = new byte[config.width * config.height];
+        target = new byte[config.width * config.height];
+        occupiedCount = 0;
+        previous = null;
+        motionCount = 0;
+        frameTimer.stop();
+        repaintField();
+    }
+
+    /**
+     * Removes every cell from the canvas
+     */
+    void clearState(){
+        if(shown != null){
+            for(int i = 0; i < occupiedCount; i++){
+                shown[occupied[i]] = EMPTY;
+            }
+        }
+        occupiedCount = 0;
+        config = null;
+        previous = null;
+        motionCount = 0;
+        frameTimer.stop();
+        repaintField();
+    }
+
+    void paintState(GameSnapshot state){
+        if(config == null || state.config.width != config.width || state.config.height != config.height)
+            return;
+        long now = System.nanoTime();
+        boolean successor = previous != null && state.stateId == previous.stateId + 1;
+        // Step, which is being extrapolated, is carried over to the new motions
+        double carried = successor && motionCount != 0 ? Math.max(0, progress(now) - 1) : 0;
+        turnNanos = state.config.iterationDelayMs * 1_000_000L;
+        motionStartNanos = now - (long) (carried * turnNanos);
+
+        motionCount = 0;
+        for(int snake = 0; snake < state.snakeCount(); snake++){
+            byte kind = state.snakeState(snake) == GameState.SnakeState.ALIVE ? ALIVE : ZOMBIE;
+            Motion motion = successor ? findMotion(state, snake, kind) : null;
+            for(int i = motion == null ? 0 : 1; i < state.snakeLength(snake); i++){
+                mark(state.snakeCell(snake, i), kind);
+            }
+        }
+        for(int i = 0; i < state.foodCount(); i++){
+            mark(state.foodCell(i), FOOD);
+        }
+        for(int i = 0; i < motionCount; i++){
+            Motion motion = motions.get(i);
+            if(motion.tail != -1 && target[motion.tail] == EMPTY)
+                mark(motion.tail, motion.kind);
+            else
+                motion.tail = -1;
+        }
+        previous = state;
+        if(motionCount == 0)
+            frameTimer.stop();
+        else if(!frameTimer.isRunning())
+            frameTimer.start();
+
+        boolean valid = validateField();
+        Graphics2D g = valid ? field.createGraphics() : null;
+        for(int i = 0; i < occupiedCount; i++){
+            updateCell(g, occupied[i]);
+        }
+        for(int i = 0; i < nextOccupiedCount; i++){
+            updateCell(g, nextOccupied[i]);
+            target[nextOccupied[i]] = EMPTY;
+        }
+        if(g != null)
+            g.dispose();
+        int[] swap = occupied;
+        occupied = nextOccupied;
+        occupiedCount = nextOccupiedCount;
+        nextOccupied = swap;
+        nextOccupiedCount = 0;
+        if(!valid)
+            repaintField();
+        present();
+    }
+
+    /**
+     * Canvas is not cleared before painting, as the back buffer covers all of it
+     */
+    @Override
+    public void update(Graphics g) {
+        paint(g);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        if(!validateField())
+            repaintField();
+        present();
+    }
+
+    /**
+     * Builds motion of snake {@code snake} of {@code state} from {@link #previous} snapshot
+     * @return built motion, or {@code null}, if the snake did not make exactly one step.
+     */
+    private Motion findMotion(GameSnapshot state, int snake, byte kind){
+        int before = previous.indexOfSnake(state.snakeId(snake));
+        if(before == -1 || state.snakeLength(snake) < 2)
+            return null;
+        int oldHead = previous.snakeCell(before, 0);
+        int head = state.snakeCell(snake, 0);
+        int oldTail = previous.snakeCell(before, previous.snakeLength(before) - 1);
+        int newTail = state.snakeCell(snake, state.snakeLength(snake) - 1);
+        int headDirection = directionOf(oldHead, head);
+        if(headDirection == 0 || head == oldTail)
+            return null;
+        int tailDirection = 0;
+        if(oldTail != newTail){
+            tailDirection = directionOf(oldTail, newTail);
+            if(tailDirection == 0)
+                return null;
+        }
+        int newTailDirection = directionOf(newTail, state.snakeCell(snake, state.snakeLength(snake) - 2));
+        if(motionCount == motions.size())
+            motions.add(new Motion());
+        Motion motion = motions.get(motionCount++);
+        motion.kind = kind;
+        motion.head = head;
+        motion.headDx = dxOf(headDirection);
+        motion.headDy = dyOf(headDirection);
+        motion.tail = oldTail == newTail ? -1 : oldTail;
+        motion.tailDx = dxOf(tailDirection);
+        motion.tailDy = dyOf(tailDirection);
+        motion.newTail = newTail;
+        motion.newTailDx = dxOf(newTailDirection);
+        motion.newTailDy = dyOf(newTailDirection);
+        return motion;
+    }
+
+    /**
+     * Returns direction from cell {@code from} to adjacent cell {@code to} on the wrapped field,
+     * packed as {@code (dx + 2) << 2 | (dy + 2)}, or 0, if the cells are not adjacent
+     */
+    private int directionOf(int from, int to){
+        int dx = to % config.width - from % config.width;
+        int dy = to / config.width - from / config.width;
+        if(dx > 1)
+            dx -= config.width;
+        else if(dx < -1)
+            dx += config.width;
+        if(dy > 1)
+            dy -= config.height;
+        else if(dy < -1)
+            dy += config.height;
+        if(Math.abs(dx) + Math.abs(dy) != 1)
+            return 0;
+        return (dx + 2) << 2 | (dy + 2);
+    }
+
+    private static int dxOf(int direction){
+        return direction == 0 ? 0 : (direction >> 2) - 2;
+    }
+
+    private static int dyOf(int direction){
+        return direction == 0 ? 0 : (direction & 0b11) - 2;
+    }
+
+    /**
+     * Returns share of a turn, which has passed since motions started, limited by extrapolation
+     */
+    private double progress(long now){
+        if(turnNanos <= 0)
+            return 1 + MAX_EXTRAPOLATION;
+        return Math.min(1 + MAX_EXTRAPOLATION, Math.max(0, (double) (now - motionStartNanos) / turnNanos));
+    }
+
+    /**
+     * Draws motions over the back buffer, copied to {@code g}
+     */
+    private void drawMotions(Graphics g, double progress){
+        double step = Math.min(progress, 1);
+        double extra = progress - step;
+        g.setColor(background());
+        for(int i = 0; i < motionCount; i++){
+            Motion motion = motions.get(i);
+            if(motion.tail != -1)
+                fillPart(g, motion.tail, motion.tailDx, motion.tailDy, step);
+            if(extra > 0)
+                fillPart(g, motion.newTail, motion.newTailDx, motion.newTailDy, extra);
+        }
+        for(int i = 0; i < motionCount; i++){
+            Motion motion = motions.get(i);
+            g.setColor(COLORS[motion.kind]);
+            fillPart(g, motion.head, motion.headDx, motion.headDy, step);
+            if(extra > 0)
+                fillPart(g, neighbour(motion.head, motion.headDx, motion.headDy), motion.headDx, motion.headDy, extra);
+        }
+    }
+
+    private int neighbour(int cell, int dx, int dy){
+        int x = Math.floorMod(cell % config.width + dx, config.width);
+        int y = Math.floorMod(cell / config.width + dy, config.height);
+        return y * config.width + x;
+    }
+
+    /**
+     * Fills share {@code fraction} of {@code cell}, which is entered first, when moving in direction {@code (dx, dy)}
+     */
+    private void fillPart(Graphics g, int cell, int dx, int dy, double fraction){
+        int x = (cell % config.width) * stepPix + firstPixX;
+        int y = (cell / config.width) * stepPix + firstPixY;
+        int length = (int) Math.round(fraction * stepPix);
+        if(dx > 0)
+            g.fillRect(x, y, length, stepPix);
+        else if(dx < 0)
+            g.fillRect(x + stepPix - length, y, length, stepPix);
+        else if(dy > 0)
+            g.fillRect(x, y, stepPix, length);
+        else if(dy < 0)
+            g.fillRect(x, y + stepPix - length, stepPix, length);
+    }
+
+    private void mark(int cell, byte kind){
+        if(target[cell] == EMPTY){
+            if(nextOccupiedCount == nextOccupied.length)
+                nextOccupied = Arrays.copyOf(nextOccupied, nextOccupied.length * 2);
+            nextOccupied[nextOccupiedCount++] = cell;
+        }
+        target[cell] = kind;
+    }
+
+    /**
+     * Makes {@code cell} of the back buffer show its kind in {@link #target}
+     * @param g graphics of the back buffer, or {@code null}, if the back buffer is repainted later.
+     */
+    private void updateCell(Graphics2D g, int cell){
+        if(shown[cell] == target[cell])
+            return;
+        shown[cell] = target[cell];
+        if(g != null)
+            paintCell(g, cell, shown[cell]);
+    }
+
+    private void paintCell(Graphics2D g, int cell, byte kind){
+        g.setColor(kind == EMPTY ? background() : COLORS[kind]);
+        g.fillRect((cell % config.width) * stepPix + firstPixX, (cell / config.width) * stepPix + firstPixY,
+                stepPix, stepPix);
+    }
+
+    private Color background(){
+        Color background = getBackground();
+        return background == null ? Color.WHITE : background;
+    }
+
+    /**
+     * Makes sure, that the back buffer exists and fits the canvas
+     * @return {@code false}, if contents of the back buffer were lost and it must be repainted.
+     */
+    private boolean validateField(){
+        if(!isDisplayable() || getWidth() <= 0 || getHeight() <= 0)
+            return false;
+        if(field == null || field.getWidth() != getWidth() || field.getHeight() != getHeight()){
+            field = createVolatileImage(getWidth(), getHeight());
+            return false;
+        }
+        int status = field.validate(getGraphicsConfiguration());
+        if(status == VolatileImage.IMAGE_INCOMPATIBLE){
+            field = createVolatileImage(getWidth(), getHeight());
+            return false;
+        }
+        return status == VolatileImage.IMAGE_OK && !field.contentsLost();
+    }
+
+    /**
+     * Paints the whole back buffer from {@link #shown}
+     */
+    private void repaintField(){
+        validateField();
+        if(field == null)
+            return;
+        Graphics2D g = field.createGraphics();
+        g.setColor(background());
+        g.fillRect(0, 0, field.getWidth(), field.getHeight());
+        if(config != null){
+            g.setColor(Color.BLACK);
+            g.drawRect(firstPixX, firstPixY, config.width * stepPix, config.height * stepPix);
+            for(int i = 0; i < occupiedCount; i++){
+                paintCell(g, occupied[i], shown[occupied[i]]);
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * Copies the back buffer with motions over it to the screen
+     */
+    private void present(){
+        double progress = progress(System.nanoTime());
+        if(progress >= 1 + MAX_EXTRAPOLATION)
+            frameTimer.stop();
+        BufferStrategy strategy = getBufferStrategy();
+        if(field == null || strategy == null)
+            return;
+        do {
+            do {
+                if(!validateField())
+                    repaintField();
+                Graphics g = strategy.getDrawGraphics();
+                g.drawImage(field, 0, 0, null);
+                drawMotions(g, progress);
+                g.dispose();
+            } while(strategy.contentsRestored());
+            strategy.show();
+        } while(strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+}
@@ -1,8 +1,17 @@
 package application.messages;
 
 public class AckMessage extends Message{
+    /**
+     * Id of the state, after which acknowledged steer takes effect, or -1 for other messages
+     */
+    public final int stateId;
 
     public AckMessage(int seq, int senderId, int receiverId) {
+        this(seq, senderId, receiverId, -1);
+    }
+
+    public AckMessage(int seq, int senderId, int receiverId, int stateId) {
         super(MessageType.ACK, seq, senderId, receiverId);
+        this.stateId = stateId;
     }
 }
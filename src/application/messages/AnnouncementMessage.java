@@ -7,11 +7,20 @@ public class AnnouncementMessage extends Message {
     public final PlayerInfo[] players;
     public final GameConfig config;
     public final boolean canJoin;
+    /**
+     * Id of the room, which the game is hosted in, on the master's channel
+     */
+    public final int roomId;
 
     public AnnouncementMessage(int seq, int senderId, int receiverId, PlayerInfo[] players, GameConfig config, boolean canJoin){
+        this(seq, senderId, receiverId, players, config, canJoin, 0);
+    }
+
+    public AnnouncementMessage(int seq, int senderId, int receiverId, PlayerInfo[] players, GameConfig config, boolean canJoin, int roomId){
         super(MessageType.ANNOUNCEGAME, seq, senderId, receiverId);
         this.players = players;
         this.config = config;
         this.canJoin = canJoin;
+        this.roomId = roomId;
     }
 }
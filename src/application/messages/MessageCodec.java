@@ -0,0 +1,264 @@
+package application.messages;
+
+import application.GameState;
+import application.StateDelta;
+import application.enums.Direction;
+import application.enums.NodeRole;
+import application.enums.PlayerType;
+import application.gamedata.GameConfig;
+import application.gamedata.PlayerInfo;
+
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class converts messages to compact binary form and back.
+ * <p>
+ * Every message starts with a header: type of the message as a single byte,
+ * followed by {@code seq}, {@code senderId} and {@code receiverId} as varints.
+ * Header is followed by fields, specific for a type of the message.
+ */
+public final class MessageCodec {
+
+    /**
+     * Maximal size of an encoded message.
+     * It is enough for a state of the largest field, allowed by {@link GameConfig#maximums}.
+     */
+    public static final int MAX_MESSAGE_SIZE = 1 << 19;
+
+    /**
+     * Maximal size of a message header
+     */
+    public static final int MAX_HEADER_SIZE = 16;
+
+    private static final MessageType[] messageTypes = MessageType.values();
+    private static final Direction[] directions = Direction.values();
+    private static final NodeRole[] nodeRoles = NodeRole.values();
+    private static final PlayerType[] playerTypes = PlayerType.values();
+
+    private MessageCodec(){}
+
+    /**
+     * Writes {@code message} to {@code buf}, starting at its current position.
+     */
+    public static void encode(Message message, ByteBuffer buf){
+        encodeHeader(buf, message.messageType, message.seq, message.senderId, message.receiverId);
+        switch (message.messageType) {
+            case STEER:
+                buf.put((byte) ((SteerMessage) message).direction.ordinal());
+                break;
+            case ACK:
+                putVarInt(buf, ((AckMessage) message).stateId + 1);
+                break;
+            case SENDSTATE:
+                ((StateMessage) message).state.writeTo(buf);
+                break;
+            case SENDSTATEDELTA:
+                ((StateDeltaMessage) message).delta.writeTo(buf);
+                break;
+            case ANNOUNCEGAME:
+                AnnouncementMessage announcement = (AnnouncementMessage) message;
+                putVarInt(buf, announcement.players.length);
+                for(PlayerInfo player: announcement.players){
+                    putPlayer(buf, player);
+                }
+                putConfig(buf, announcement.config);
+                buf.put((byte) (announcement.canJoin ? 1 : 0));
+                putVarInt(buf, announcement.roomId);
+                break;
+            case JOIN:
+                JoinMessage join = (JoinMessage) message;
+                buf.put((byte) join.playerType.ordinal());
+                buf.put((byte) (join.onlyView ? 1 : 0));
+                putString(buf, join.name);
+                break;
+            case ERROR:
+                putString(buf, ((ErrorMessage) message).reason);
+                break;
+            case CHANGEROLE:
+                ChangeRoleMessage changeRole = (ChangeRoleMessage) message;
+                putNullableRole(buf, changeRole.senderRole);
+                putNullableRole(buf, changeRole.receiverRole);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public static void encodeHeader(ByteBuffer buf, MessageType type, int seq, int senderId, int receiverId){
+        buf.put((byte) type.ordinal());
+        putVarInt(buf, seq);
+        putVarInt(buf, senderId);
+        putVarInt(buf, receiverId);
+    }
+
+    /**
+     * Writes a header right in front of an already encoded message body, so that the same body
+     * may be sent to many receivers without being encoded again.
+     * @param body buffer, holding encoded body between its position and limit,
+     *             with at least {@link #MAX_HEADER_SIZE} bytes in front of it.
+     * @param scratch buffer of at least {@link #MAX_HEADER_SIZE} bytes, which header is encoded into.
+     * @return buffer, sharing content with {@code body}, which holds the whole message between its position and limit.
+     */
+    public static ByteBuffer prependHeader(ByteBuffer body, ByteBuffer scratch, MessageType type, int seq, int senderId, int receiverId){
+        scratch.clear();
+        encodeHeader(scratch, type, seq, senderId, receiverId);
+        int headerStart = body.position() - scratch.position();
+        ByteBuffer message = body.duplicate();
+        message.position(headerStart);
+        message.put(scratch.array(), 0, scratch.position());
+        message.position(headerStart);
+        return message;
+    }
+
+    /**
+     * Reads a message from {@code buf}, starting at its current position.
+     * @throws StreamCorruptedException if {@code buf} does not contain a valid message.
+     */
+    public static Message decode(ByteBuffer buf) throws StreamCorruptedException {
+        try {
+            MessageType type = messageTypes[buf.get()];
+            int seq = getVarInt(buf);
+            int senderId = getVarInt(buf);
+            int receiverId = getVarInt(buf);
+            switch (type) {
+                case PING:
+                    return new PingMessage(seq, senderId, receiverId);
+                case STEER:
+                    return new SteerMessage(seq, senderId, receiverId, directions[buf.get()]);
+                case ACK:
+                    return new AckMessage(seq, senderId, receiverId, getVarInt(buf) - 1);
+                case SENDSTATE:
+                    return new StateMessage(seq, senderId, receiverId, GameState.readFrom(buf));
+                case SENDSTATEDELTA:
+                    return new StateDeltaMessage(seq, senderId, receiverId, StateDelta.readFrom(buf));
+                case ANNOUNCEGAME:
+                    PlayerInfo[] players = new PlayerInfo[getCount(buf)];
+                    for(int i = 0; i < players.length; i++){
+                        players[i] = getPlayer(buf);
+                    }
+                    GameConfig config = getConfig(buf);
+                    boolean canJoin = buf.get() != 0;
+                    return new AnnouncementMessage(seq, senderId, receiverId, players, config, canJoin, getVarInt(buf));
+                case JOIN:
+                    PlayerType playerType = playerTypes[buf.get()];
+                    boolean onlyView = buf.get() != 0;
+                    return new JoinMessage(seq, senderId, receiverId, playerType, onlyView, getString(buf));
+                case ERROR:
+                    return new ErrorMessage(seq, senderId, receiverId, getString(buf));
+                case CHANGEROLE:
+                    NodeRole senderRole = getNullableRole(buf);
+                    NodeRole receiverRole = getNullableRole(buf);
+                    return new ChangeRoleMessage(seq, senderId, receiverId, senderRole, receiverRole);
+                default:
+                    throw new StreamCorruptedException("Unexpected message type " + type);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("Malformed message: " + e);
+        }
+    }
+
+    public static void putVarInt(ByteBuffer buf, int value){
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    public static int getVarInt(ByteBuffer buf){
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            byte next = buf.get();
+            value |= (next & 0x7F) << shift;
+            if((next & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Reads number of items, which follow it in {@code buf}. Every item takes at least a byte,
+     * so a larger number can not be valid, and nothing is allocated for it.
+     * @throws StreamCorruptedException if the number is negative or larger than the rest of {@code buf}.
+     */
+    public static int getCount(ByteBuffer buf) throws StreamCorruptedException {
+        int count = getVarInt(buf);
+        if(count < 0 || count > buf.remaining())
+            throw new StreamCorruptedException("Count " + count + " does not fit the message");
+        return count;
+    }
+
+    public static void putString(ByteBuffer buf, String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarInt(buf, bytes.length);
+        buf.put(bytes);
+    }
+
+    public static String getString(ByteBuffer buf) throws StreamCorruptedException {
+        byte[] bytes = new byte[getCount(buf)];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void putConfig(ByteBuffer buf, GameConfig config){
+        putVarInt(buf, config.width);
+        putVarInt(buf, config.height);
+        putVarInt(buf, config.foodStatic);
+        buf.putDouble(config.foodPerPlayer);
+        putVarInt(buf, config.iterationDelayMs);
+        buf.putDouble(config.deadFoodProb);
+        putVarInt(buf, config.pingDelayMs);
+        putVarInt(buf, config.nodeTimeoutMs);
+    }
+
+    /**
+     * Reads a config, written by {@link #putConfig}
+     * @throws StreamCorruptedException if the config is not {@link GameConfig#isWithinLimits()}.
+     */
+    public static GameConfig getConfig(ByteBuffer buf) throws StreamCorruptedException {
+        int width = getVarInt(buf);
+        int height = getVarInt(buf);
+        int foodStatic = getVarInt(buf);
+        double foodPerPlayer = buf.getDouble();
+        int iterationDelayMs = getVarInt(buf);
+        double deadFoodProb = buf.getDouble();
+        int pingDelayMs = getVarInt(buf);
+        int nodeTimeoutMs = getVarInt(buf);
+        GameConfig config = new GameConfig(width, height, foodStatic, foodPerPlayer, iterationDelayMs, deadFoodProb, pingDelayMs, nodeTimeoutMs);
+        if(!config.isWithinLimits())
+            throw new StreamCorruptedException("Config is out of limits");
+        return config;
+    }
+
+    public static void putPlayer(ByteBuffer buf, PlayerInfo player){
+        putString(buf, player.name);
+        putVarInt(buf, player.id);
+        putString(buf, player.ipAddress);
+        putVarInt(buf, player.port);
+        buf.put((byte) player.role.ordinal());
+        buf.put((byte) player.type.ordinal());
+        putVarInt(buf, player.getScore());
+    }
+
+    public static PlayerInfo getPlayer(ByteBuffer buf) throws StreamCorruptedException {
+        String name = getString(buf);
+        int id = getVarInt(buf);
+        String ipAddress = getString(buf);
+        int port = getVarInt(buf);
+        NodeRole role = nodeRoles[buf.get()];
+        PlayerType type = playerTypes[buf.get()];
+        return new PlayerInfo(name, id, ipAddress, port, role, type, getVarInt(buf));
+    }
+
+    private static void putNullableRole(ByteBuffer buf, NodeRole role){
+        buf.put((byte) (role == null ? -1 : role.ordinal()));
+    }
+
+    private static NodeRole getNullableRole(ByteBuffer buf){
+        byte ordinal = buf.get();
+        return ordinal == -1 ? null : nodeRoles[ordinal];
+    }
+}
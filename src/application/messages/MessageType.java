@@ -9,5 +9,6 @@ public enum MessageType {
     ANNOUNCEGAME,
     JOIN,
     ERROR,
-    CHANGEROLE
+    CHANGEROLE,
+    SENDSTATEDELTA
 }
@@ -0,0 +1,12 @@
+package application.messages;
+
+import application.StateDelta;
+
+public class StateDeltaMessage extends Message{
+    public final StateDelta delta;
+
+    public StateDeltaMessage(int seq, int senderId, int receiverId, StateDelta delta) {
+        super(MessageType.SENDSTATEDELTA, seq, senderId, receiverId);
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,210 @@
+package application.metrics;
+
+import application.transport.ChunkedTransport;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects metrics of a single game. They are recorded on the thread of the game without allocation
+ * and may be read from any thread.
+ * <p>
+ * Metrics are registered as MXBean with name {@code application:type=ControlLoop,port=PORT,room=ROOM},
+ * where {@code PORT} is local port of the channel of the game, so that many games of a process are told apart.
+ */
+public final class ControlMetrics implements ControlMetricsMXBean {
+
+    public static final String DOMAIN = "application";
+
+    private final ChunkedTransport transport;
+    private final ObjectName name;
+
+    private final LatencyHistogram turnDurations = new LatencyHistogram();
+    private final LatencyHistogram turnLateness = new LatencyHistogram();
+    private final LongAdder skippedTurns = new LongAdder();
+    private final LongAdder receivedDatagrams = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder malformedDatagrams = new LongAdder();
+    private final LongAdder resends = new LongAdder();
+    private final LongAdder queuedResends = new LongAdder();
+    private final LongAdder releasedResends = new LongAdder();
+    private final ConcurrentHashMap<Integer, LongAdder> resendsByPeer = new ConcurrentHashMap<>();
+
+    /**
+     * @param transport transport of the game, which counts sent datagrams.
+     */
+    public ControlMetrics(ChunkedTransport transport, int port, int roomId) {
+        this.transport = transport;
+        try {
+            name = new ObjectName(DOMAIN + ":type=ControlLoop,port=" + port + ",room=" + roomId);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Exports metrics over JMX, until {@link #unregister()}
+     */
+    public void register(){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Could not register metrics " + name + ": " + e);
+        }
+    }
+
+    public void unregister(){
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ignored) {}
+    }
+
+    public void turnMade(long durationNanos, long latenessNanos){
+        turnDurations.record(durationNanos);
+        turnLateness.record(latenessNanos);
+    }
+
+    public void turnsSkipped(long turns){
+        skippedTurns.add(turns);
+    }
+
+    public void datagramReceived(int bytes){
+        receivedDatagrams.increment();
+        receivedBytes.add(bytes);
+    }
+
+    public void datagramMalformed(){
+        malformedDatagrams.increment();
+    }
+
+    /**
+     * Starts counting resends to peer {@code id}
+     * @return counter, which is passed to {@link #packetResent(LongAdder)}.
+     */
+    public LongAdder addPeer(int id){
+        LongAdder peerResends = new LongAdder();
+        resendsByPeer.put(id, peerResends);
+        return peerResends;
+    }
+
+    /**
+     * Stops counting resends to peer {@code id}, unless its counter is already replaced by a newer one
+     */
+    public void removePeer(int id, LongAdder peerResends){
+        resendsByPeer.remove(id, peerResends);
+    }
+
+    public void removeAllPeers(){
+        resendsByPeer.clear();
+    }
+
+    /**
+     * @param peerResends counter of the peer, returned by {@link #addPeer(int)}.
+     */
+    public void packetResent(LongAdder peerResends){
+        resends.increment();
+        peerResends.increment();
+    }
+
+    public void resendQueued(){
+        queuedResends.increment();
+    }
+
+    public void resendReleased(){
+        releasedResends.increment();
+    }
+
+    @Override
+    public long getTurns() {
+        return turnDurations.count();
+    }
+
+    @Override
+    public long getTurnDurationP50Nanos() {
+        return turnDurations.valueAt(0.5);
+    }
+
+    @Override
+    public long getTurnDurationP99Nanos() {
+        return turnDurations.valueAt(0.99);
+    }
+
+    @Override
+    public long getTurnDurationMaxNanos() {
+        return turnDurations.max();
+    }
+
+    @Override
+    public long getTurnLatenessP50Nanos() {
+        return turnLateness.valueAt(0.5);
+    }
+
+    @Override
+    public long getTurnLatenessP99Nanos() {
+        return turnLateness.valueAt(0.99);
+    }
+
+    @Override
+    public long getTurnLatenessMaxNanos() {
+        return turnLateness.max();
+    }
+
+    @Override
+    public long getSkippedTurns() {
+        return skippedTurns.sum();
+    }
+
+    @Override
+    public long getReceivedDatagrams() {
+        return receivedDatagrams.sum();
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    @Override
+    public long getMalformedDatagrams() {
+        return malformedDatagrams.sum();
+    }
+
+    @Override
+    public long getSentDatagrams() {
+        return transport.sentDatagrams();
+    }
+
+    @Override
+    public long getSentBytes() {
+        return transport.sentBytes();
+    }
+
+    @Override
+    public long getDroppedDatagrams() {
+        return transport.droppedDatagrams();
+    }
+
+    @Override
+    public long getResends() {
+        return resends.sum();
+    }
+
+    @Override
+    public long getResendQueueDepth() {
+        long released = releasedResends.sum();
+        return queuedResends.sum() - released;
+    }
+
+    @Override
+    public Map<Integer, Long> getResendsByPeer() {
+        TreeMap<Integer, Long> result = new TreeMap<>();
+        resendsByPeer.forEach((id, peerResends) -> result.put(id, peerResends.sum()));
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package application.metrics;
+
+import java.util.Map;
+
+/**
+ * This interface represents metrics of a single game, controlled by an {@link application.ApplicationControlThread},
+ * as they are exported over JMX. Durations are in nanoseconds, and every value counts from start of the game.
+ */
+public interface ControlMetricsMXBean {
+
+    long getTurns();
+
+    long getTurnDurationP50Nanos();
+
+    long getTurnDurationP99Nanos();
+
+    long getTurnDurationMaxNanos();
+
+    /**
+     * Delay of a turn after the time, when it was due
+     */
+    long getTurnLatenessP50Nanos();
+
+    long getTurnLatenessP99Nanos();
+
+    long getTurnLatenessMaxNanos();
+
+    /**
+     * Turns, which master skipped, because it fell behind
+     */
+    long getSkippedTurns();
+
+    long getReceivedDatagrams();
+
+    long getReceivedBytes();
+
+    /**
+     * Datagrams, which could not be reassembled or decoded
+     */
+    long getMalformedDatagrams();
+
+    long getSentDatagrams();
+
+    long getSentBytes();
+
+    /**
+     * Datagrams, which did not fit into the send buffer of the channel or could not be sent to their receivers
+     */
+    long getDroppedDatagrams();
+
+    long getResends();
+
+    /**
+     * Messages, which are resent until they are acknowledged
+     */
+    long getResendQueueDepth();
+
+    /**
+     * Resends to every current peer by its id
+     */
+    Map<Integer, Long> getResendsByPeer();
+}
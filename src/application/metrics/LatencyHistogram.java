@@ -0,0 +1,78 @@
+package application.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents histogram of durations in nanoseconds with bounded relative error, as HdrHistogram does.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly. Every larger power of two is split into
+ * {@code SUB_BUCKETS / 2} buckets of equal width, so that a value is reported with error below
+ * {@code 2 / SUB_BUCKETS} of it. Values are recorded by a single thread without allocation,
+ * and may be read from any thread.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+    private volatile long count = 0;
+    private volatile long max = 0;
+
+    /**
+     * Records {@code nanos}. Negative values are recorded as 0.
+     * It may be invoked from a single thread only.
+     */
+    public void record(long nanos){
+        long value = Math.max(0, nanos);
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        count = count + 1;
+        if(value > max)
+            max = value;
+    }
+
+    public long count(){
+        return count;
+    }
+
+    public long max(){
+        return max;
+    }
+
+    /**
+     * Returns value, which {@code quantile} of recorded values do not exceed, or 0, if nothing is recorded
+     */
+    public long valueAt(double quantile){
+        long total = count;
+        if(total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if(seen >= rank)
+                return Math.min(highestValueOf(i), max);
+        }
+        return max;
+    }
+
+    private static int indexOf(long value){
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int bucket = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return bucket * HALF_SUB_BUCKETS + (int) (value >>> bucket);
+    }
+
+    /**
+     * Returns the largest value, which falls into bucket {@code index}
+     */
+    private static long highestValueOf(int index){
+        if(index < SUB_BUCKETS)
+            return index;
+        int bucket = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = index - (long) bucket * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
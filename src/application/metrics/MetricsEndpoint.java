@@ -0,0 +1,118 @@
+package application.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class serves every MXBean of {@link ControlMetrics#DOMAIN} domain as plain text over HTTP on the loopback interface.
+ * <p>
+ * Every numeric attribute is a line {@code domain_type_attribute{key="value",...} number},
+ * where keys are properties of the name of the MXBean other than {@code type}, and names are in snake case.
+ * Attribute, which is a map, gives a line per entry with an additional {@code key} label.
+ */
+public class MetricsEndpoint {
+
+    public static final String PATH = "/metrics";
+
+    private final HttpServer server;
+
+    /**
+     * @param port local port, or 0 to choose any free one.
+     */
+    public MetricsEndpoint(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::serve);
+    }
+
+    public void start(){
+        server.start();
+    }
+
+    public void stop(){
+        server.stop(0);
+    }
+
+    public int port(){
+        return server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try {
+            body = render().getBytes(StandardCharsets.UTF_8);
+        } catch (JMException e) {
+            body = ("# " + e + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String render() throws JMException {
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+        StringBuilder text = new StringBuilder();
+        for(ObjectName name: beans.queryNames(new ObjectName(ControlMetrics.DOMAIN + ":*"), null)){
+            String prefix = ControlMetrics.DOMAIN + "_" + snakeCase(name.getKeyProperty("type")) + "_";
+            StringBuilder labels = new StringBuilder();
+            for(Map.Entry<String, String> property: new TreeMap<>(name.getKeyPropertyList()).entrySet()){
+                if(property.getKey().equals("type"))
+                    continue;
+                labels.append(labels.length() == 0 ? "" : ",")
+                        .append(property.getKey()).append("=\"").append(property.getValue()).append('"');
+            }
+            for(MBeanAttributeInfo attribute: beans.getMBeanInfo(name).getAttributes()){
+                Object value;
+                try {
+                    value = beans.getAttribute(name, attribute.getName());
+                } catch (JMException e) {
+                    continue;
+                }
+                String metric = prefix + snakeCase(attribute.getName());
+                if(value instanceof Number){
+                    text.append(metric).append('{').append(labels).append("} ").append(value).append('\n');
+                }
+                else if(value instanceof TabularData){
+                    for(Object row: ((TabularData) value).values()){
+                        CompositeData entry = (CompositeData) row;
+                        text.append(metric).append('{').append(labels).append(labels.length() == 0 ? "" : ",")
+                                .append("key=\"").append(entry.get("key")).append("\"} ")
+                                .append(entry.get("value")).append('\n');
+                    }
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String snakeCase(String name){
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if(Character.isUpperCase(c)){
+                if(i != 0)
+                    result.append('_');
+                result.append(Character.toLowerCase(c));
+            }
+            else
+                result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,396 @@
+package application.transport;
+
+import application.messages.MessageCodec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sends encoded messages of any size over a non-blocking datagram channel.
+ * <p>
+ * Every datagram starts with a frame kind, followed by id of the room, which the datagram belongs to.
+ * Room id lets many games share one channel, see {@link #roomOf(ByteBuffer)}. Messages, which fit into a single datagram,
+ * are sent as {@link #WHOLE} frames. Larger messages are split into chunks of {@link #MAX_PAYLOAD} bytes,
+ * each one carrying seq of the message, its index and total number of chunks.
+ * Receiver reassembles chunks by sender address and seq. It keeps at most {@link #MAX_INCOMING_PER_SENDER} messages
+ * of a sender and {@link #MAX_INCOMING} messages in total, so that chunk headers of any sender can not make it
+ * hold more than {@code MAX_INCOMING} buffers. Once a limit is reached, the message, which received a chunk
+ * the longest time ago, is dropped for a new one.
+ * <p>
+ * Receiver of {@link #RELIABLE_CHUNK} frames answers with a {@link #CHUNK_ACK} frame,
+ * holding bitmap of chunks received so far, so that sender resends only the missing ones.
+ * Like a duplicate of a whole datagram, a duplicate chunk of a complete message delivers this message again.
+ * <p>
+ * Datagram, which does not fit into the send buffer of the channel or can not be sent to its receiver,
+ * is dropped, like one lost in the network, so that one unreachable receiver does not stop a game.
+ * Only a closed channel fails sending.
+ */
+public class ChunkedTransport {
+
+    /**
+     * Maximal number of message bytes in a single datagram
+     */
+    public static final int MAX_PAYLOAD = 1200;
+    /**
+     * Size of a buffer, which is enough to receive any datagram of this transport
+     */
+    public static final int MAX_DATAGRAM_SIZE = MAX_PAYLOAD + 16;
+
+    private static final byte WHOLE = 0;
+    private static final byte CHUNK = 1;
+    private static final byte RELIABLE_CHUNK = 2;
+    private static final byte CHUNK_ACK = 3;
+
+    private static final int MAX_CHUNKS = (MessageCodec.MAX_MESSAGE_SIZE + MAX_PAYLOAD - 1) / MAX_PAYLOAD;
+    /**
+     * Time without new chunks, after which a message is dropped.
+     * It exceeds the largest {@link application.gamedata.GameConfig#pingDelayMs}, which chunks are resent with.
+     */
+    private static final long REASSEMBLY_TIMEOUT_MS = 20000;
+    private static final int MAX_INCOMING_PER_SENDER = 8;
+    private static final int MAX_INCOMING = 64;
+
+    /**
+     * This class represents a message, sent by chunks, which may be resent.
+     */
+    public class Outgoing {
+        private final ByteBuffer[] packets;
+        private final BitSet ackedChunks;
+        private final SocketAddress receiver;
+        private final int seq;
+
+        private Outgoing(ByteBuffer[] packets, SocketAddress receiver, int seq) {
+            this.packets = packets;
+            this.ackedChunks = new BitSet(packets.length);
+            this.receiver = receiver;
+            this.seq = seq;
+        }
+    }
+
+    private class Incoming {
+        private final byte[] data;
+        private final BitSet receivedChunks;
+        private final int chunkCount;
+        private int length;
+        private long lastReceived = System.currentTimeMillis();
+
+        private Incoming(int chunkCount) {
+            this.data = new byte[chunkCount * MAX_PAYLOAD];
+            this.receivedChunks = new BitSet(chunkCount);
+            this.chunkCount = chunkCount;
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final int roomId;
+    private final HashMap<SocketAddress, HashMap<Integer, Outgoing>> outgoing = new HashMap<>();
+    private final HashMap<SocketAddress, HashMap<Integer, Incoming>> incoming = new HashMap<>();
+    /**
+     * Number of messages in {@link #incoming}
+     */
+    private int incomingCount = 0;
+    private final ByteBuffer frameBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private long lastExpiryCheck = System.currentTimeMillis();
+    /**
+     * Counters of datagrams, sent by this transport. They may be read from any thread.
+     */
+    private final LongAdder sentDatagrams = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder droppedDatagrams = new LongAdder();
+
+    public ChunkedTransport(DatagramChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * @param roomId id of the room, which every sent datagram is marked with.
+     */
+    public ChunkedTransport(DatagramChannel channel, int roomId) {
+        this.channel = channel;
+        this.roomId = roomId;
+    }
+
+    /**
+     * Returns id of the room, which {@code datagram} belongs to, without changing its position
+     * @throws StreamCorruptedException if the datagram is malformed.
+     */
+    public static int roomOf(ByteBuffer datagram) throws StreamCorruptedException {
+        ByteBuffer frame = datagram.duplicate();
+        try {
+            frame.get();
+            return MessageCodec.getVarInt(frame);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("Malformed frame: " + e);
+        }
+    }
+
+    /**
+     * Sends encoded message, which lies between position and limit of {@code message}.
+     * @param reliable whether the message may be resent by {@link #resend(Outgoing)}.
+     * @return handle for resending the message or {@code null}, if {@code reliable} is {@code false}.
+     */
+    public Outgoing send(ByteBuffer message, int seq, InetAddress address, int port, boolean reliable) throws IOException {
+        SocketAddress receiver = new InetSocketAddress(address, port);
+        int length = message.remaining();
+        if(length <= MAX_PAYLOAD && !reliable){
+            frameBuffer.clear();
+            frameBuffer.put(WHOLE);
+            MessageCodec.putVarInt(frameBuffer, roomId);
+            frameBuffer.put(message);
+            frameBuffer.flip();
+            sendDatagram(frameBuffer, receiver);
+            return null;
+        }
+        if(length <= MAX_PAYLOAD){
+            ByteBuffer packet = ByteBuffer.allocate(length + 6);
+            packet.put(WHOLE);
+            MessageCodec.putVarInt(packet, roomId);
+            packet.put(message);
+            packet.flip();
+            sendDatagram(packet.duplicate(), receiver);
+            return register(new Outgoing(new ByteBuffer[]{packet}, receiver, seq));
+        }
+        int chunkCount = (length + MAX_PAYLOAD - 1) / MAX_PAYLOAD;
+        ByteBuffer[] packets = reliable ? new ByteBuffer[chunkCount] : null;
+        for(int i = 0; i < chunkCount; i++){
+            frameBuffer.clear();
+            frameBuffer.put(reliable ? RELIABLE_CHUNK : CHUNK);
+            MessageCodec.putVarInt(frameBuffer, roomId);
+            MessageCodec.putVarInt(frameBuffer, seq);
+            MessageCodec.putVarInt(frameBuffer, i);
+            MessageCodec.putVarInt(frameBuffer, chunkCount);
+            int chunkLength = Math.min(MAX_PAYLOAD, message.remaining());
+            ByteBuffer chunk = message.duplicate();
+            chunk.limit(chunk.position() + chunkLength);
+            frameBuffer.put(chunk);
+            message.position(message.position() + chunkLength);
+            frameBuffer.flip();
+            if(reliable){
+                packets[i] = ByteBuffer.allocate(frameBuffer.remaining());
+                packets[i].put(frameBuffer.duplicate());
+                packets[i].flip();
+            }
+            sendDatagram(frameBuffer, receiver);
+        }
+        if(!reliable)
+            return null;
+        return register(new Outgoing(packets, receiver, seq));
+    }
+
+    /**
+     * Resends chunks of {@code message}, which were not acknowledged by the receiver.
+     * If every chunk is acknowledged, but the message itself is not, the last chunk is resent
+     * to deliver the message once more.
+     */
+    public void resend(Outgoing message) throws IOException {
+        if(message.ackedChunks.cardinality() == message.packets.length){
+            sendDatagram(message.packets[message.packets.length - 1].duplicate(), message.receiver);
+            return;
+        }
+        for(int i = message.ackedChunks.nextClearBit(0); i < message.packets.length; i = message.ackedChunks.nextClearBit(i + 1)){
+            sendDatagram(message.packets[i].duplicate(), message.receiver);
+        }
+    }
+
+    /**
+     * Forgets {@code message}, once it is acknowledged as a whole or is no longer needed.
+     */
+    public void release(Outgoing message){
+        HashMap<Integer, Outgoing> sent = outgoing.get(message.receiver);
+        if(sent == null)
+            return;
+        sent.remove(message.seq);
+        if(sent.isEmpty())
+            outgoing.remove(message.receiver);
+    }
+
+    /**
+     * Forgets every message, sent to be resent.
+     */
+    public void releaseAll(){
+        outgoing.clear();
+    }
+
+    /**
+     * Processes a datagram from {@code sender}, which lies between position and limit of {@code frame}.
+     * @return buffer, holding complete encoded message, or {@code null},
+     * if the datagram did not complete any message. Buffer may share content with {@code frame}.
+     * @throws StreamCorruptedException if the datagram is malformed.
+     */
+    public ByteBuffer receive(ByteBuffer frame, SocketAddress sender) throws IOException {
+        try {
+            byte kind = frame.get();
+            MessageCodec.getVarInt(frame);
+            if(kind == WHOLE)
+                return frame.slice();
+            if(kind == CHUNK_ACK){
+                processChunkAck(sender, frame);
+                return null;
+            }
+            if(kind != CHUNK && kind != RELIABLE_CHUNK)
+                throw new StreamCorruptedException("Unknown frame kind " + kind);
+            int seq = MessageCodec.getVarInt(frame);
+            int index = MessageCodec.getVarInt(frame);
+            int chunkCount = MessageCodec.getVarInt(frame);
+            if(chunkCount < 2 || chunkCount > MAX_CHUNKS || index < 0 || index >= chunkCount)
+                throw new StreamCorruptedException("Malformed chunk header");
+            if(index != chunkCount - 1 && frame.remaining() != MAX_PAYLOAD)
+                throw new StreamCorruptedException("Chunk is truncated");
+            return processChunk(sender, seq, index, chunkCount, frame, kind == RELIABLE_CHUNK);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("Malformed frame: " + e);
+        }
+    }
+
+    public long sentDatagrams(){
+        return sentDatagrams.sum();
+    }
+
+    public long sentBytes(){
+        return sentBytes.sum();
+    }
+
+    /**
+     * Returns number of datagrams, which did not fit into the send buffer of the channel or could not be sent
+     */
+    public long droppedDatagrams(){
+        return droppedDatagrams.sum();
+    }
+
+    private void sendDatagram(ByteBuffer datagram, SocketAddress receiver) throws IOException {
+        int length = datagram.remaining();
+        int sent;
+        try {
+            sent = channel.send(datagram, receiver);
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            sent = 0;
+        }
+        if(sent == 0){
+            droppedDatagrams.increment();
+            return;
+        }
+        sentDatagrams.increment();
+        sentBytes.add(length);
+    }
+
+    private Outgoing register(Outgoing message){
+        outgoing.computeIfAbsent(message.receiver, receiver -> new HashMap<>()).put(message.seq, message);
+        return message;
+    }
+
+    private void processChunkAck(SocketAddress sender, ByteBuffer frame){
+        int seq = MessageCodec.getVarInt(frame);
+        HashMap<Integer, Outgoing> sent = outgoing.get(sender);
+        if(sent == null || !sent.containsKey(seq))
+            return;
+        sent.get(seq).ackedChunks.or(BitSet.valueOf(frame));
+    }
+
+    private ByteBuffer processChunk(SocketAddress sender, int seq, int index, int chunkCount,
+                                    ByteBuffer frame, boolean reliable) throws IOException {
+        expireIncoming();
+        HashMap<Integer, Incoming> messages = incoming.computeIfAbsent(sender, key -> new HashMap<>());
+        Incoming message = messages.get(seq);
+        if(message == null || message.chunkCount != chunkCount){
+            if(message == null)
+                makeRoomForIncoming(messages);
+            message = new Incoming(chunkCount);
+            messages.put(seq, message);
+        }
+        message.lastReceived = System.currentTimeMillis();
+        if(!message.receivedChunks.get(index)){
+            int chunkLength = frame.remaining();
+            frame.get(message.data, index * MAX_PAYLOAD, chunkLength);
+            message.receivedChunks.set(index);
+            if(index == chunkCount - 1)
+                message.length = index * MAX_PAYLOAD + chunkLength;
+        }
+        if(reliable)
+            sendChunkAck(sender, seq, message.receivedChunks);
+        if(message.receivedChunks.cardinality() != chunkCount)
+            return null;
+        return ByteBuffer.wrap(message.data, 0, message.length);
+    }
+
+    private void sendChunkAck(SocketAddress sender, int seq, BitSet receivedChunks) throws IOException {
+        frameBuffer.clear();
+        frameBuffer.put(CHUNK_ACK);
+        MessageCodec.putVarInt(frameBuffer, roomId);
+        MessageCodec.putVarInt(frameBuffer, seq);
+        frameBuffer.put(receivedChunks.toByteArray());
+        frameBuffer.flip();
+        sendDatagram(frameBuffer, sender);
+    }
+
+    /**
+     * Drops the oldest message, if one more message of a sender with {@code messages} would exceed a limit
+     */
+    private void makeRoomForIncoming(HashMap<Integer, Incoming> messages){
+        if(messages.size() >= MAX_INCOMING_PER_SENDER){
+            dropOldest(messages);
+            return;
+        }
+        incomingCount++;
+        if(incomingCount <= MAX_INCOMING)
+            return;
+        HashMap<Integer, Incoming> oldestMessages = null;
+        long oldest = Long.MAX_VALUE;
+        for(HashMap<Integer, Incoming> senderMessages: incoming.values()){
+            for(Incoming message: senderMessages.values()){
+                if(message.lastReceived < oldest){
+                    oldest = message.lastReceived;
+                    oldestMessages = senderMessages;
+                }
+            }
+        }
+        dropOldest(oldestMessages);
+        incomingCount--;
+    }
+
+    /**
+     * Drops the message of {@code messages}, which received a chunk the longest time ago.
+     * Map of the sender is kept, even if it becomes empty, until {@link #expireIncoming()}.
+     */
+    private static void dropOldest(HashMap<Integer, Incoming> messages){
+        Incoming oldest = null;
+        for(Incoming message: messages.values()){
+            if(oldest == null || message.lastReceived < oldest.lastReceived)
+                oldest = message;
+        }
+        messages.values().remove(oldest);
+    }
+
+    /**
+     * Drops messages, which received no chunks for too long.
+     * Complete messages are kept for the same time, so that duplicates of their chunks are not reassembled again.
+     */
+    private void expireIncoming(){
+        long now = System.currentTimeMillis();
+        if(now - lastExpiryCheck < REASSEMBLY_TIMEOUT_MS)
+            return;
+        lastExpiryCheck = now;
+        Iterator<Map.Entry<SocketAddress, HashMap<Integer, Incoming>>> senders = incoming.entrySet().iterator();
+        while(senders.hasNext()){
+            HashMap<Integer, Incoming> messages = senders.next().getValue();
+            int count = messages.size();
+            messages.values().removeIf(message -> now - message.lastReceived > REASSEMBLY_TIMEOUT_MS);
+            incomingCount -= count - messages.size();
+            if(messages.isEmpty())
+                senders.remove();
+        }
+    }
+}
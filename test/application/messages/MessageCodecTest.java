@@ -0,0 +1,199 @@
+package application.messages;
+
+import application.GameState;
+import application.enums.Direction;
+import application.enums.NodeRole;
+import application.enums.PlayerType;
+import application.gamedata.GameConfig;
+import application.gamedata.PlayerInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageCodecTest {
+
+    private static final PlayerInfo MASTER = new PlayerInfo("Master", 0, "", 9000, NodeRole.MASTER, PlayerType.HUMAN);
+
+    /**
+     * Returns a message of every type, taken from a game, which has made a few turns
+     */
+    private static List<Message> messages(){
+        GameState state = new GameState(new GameConfig(), MASTER, true);
+        state.players.put(1, new PlayerInfo("Player", 1, "127.0.0.1", 9001, NodeRole.NORMAL, PlayerType.HUMAN));
+        state.addNewSnake(1);
+        for(int i = 0; i < 5; i++){
+            state.changeState();
+        }
+        List<Message> messages = new ArrayList<>();
+        messages.add(new PingMessage(1, 2, 3));
+        messages.add(new SteerMessage(4, 1, 0, Direction.LEFT));
+        messages.add(new AckMessage(5, 0, 1, state.getStateId()));
+        messages.add(new StateMessage(6, 0, 1, state));
+        messages.add(new StateDeltaMessage(7, 0, 1, state.deltaSince(state.getStateId() - 2)));
+        messages.add(new AnnouncementMessage(8, 0, 0, state.players.values().toArray(new PlayerInfo[0]),
+                state.config, state.canJoin(), 3));
+        messages.add(new JoinMessage(9, 0, 0, PlayerType.HUMAN, false, "Игрок"));
+        messages.add(new ErrorMessage(10, 0, 1, "Game is full"));
+        messages.add(new ChangeRoleMessage(11, 0, 1, null, NodeRole.DEPUTY));
+        return messages;
+    }
+
+    private static byte[] encode(Message message){
+        ByteBuffer buf = ByteBuffer.allocate(MessageCodec.MAX_MESSAGE_SIZE);
+        MessageCodec.encode(message, buf);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    private static ByteBuffer header(MessageType type){
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        MessageCodec.encodeHeader(buf, type, 1, 2, 3);
+        return buf;
+    }
+
+    private static Message decode(ByteBuffer buf) throws StreamCorruptedException {
+        buf.flip();
+        return MessageCodec.decode(buf);
+    }
+
+    @Test
+    void decodesWhatIsEncoded() throws StreamCorruptedException {
+        for(Message message: messages()){
+            byte[] encoded = encode(message);
+            Message decoded = MessageCodec.decode(ByteBuffer.wrap(encoded));
+            assertEquals(message.getClass(), decoded.getClass());
+            assertEquals(message.seq, decoded.seq);
+            assertEquals(message.senderId, decoded.senderId);
+            assertEquals(message.receiverId, decoded.receiverId);
+            assertArrayEquals(encoded, encode(decoded), message.messageType.toString());
+        }
+    }
+
+    @Test
+    void decodesFields() throws StreamCorruptedException {
+        JoinMessage join = (JoinMessage) MessageCodec.decode(ByteBuffer.wrap(encode(
+                new JoinMessage(1, 0, 0, PlayerType.HUMAN, true, "Игрок"))));
+        assertEquals("Игрок", join.name);
+        assertEquals(PlayerType.HUMAN, join.playerType);
+        assertEquals(true, join.onlyView);
+
+        AnnouncementMessage announcement = (AnnouncementMessage) MessageCodec.decode(ByteBuffer.wrap(encode(
+                new AnnouncementMessage(1, 0, 0, new PlayerInfo[]{MASTER}, new GameConfig(), true, 5))));
+        assertEquals(1, announcement.players.length);
+        assertEquals("Master", announcement.players[0].name);
+        assertEquals(9000, announcement.players[0].port);
+        assertEquals(new GameConfig().width, announcement.config.width);
+        assertEquals(5, announcement.roomId);
+    }
+
+    @Test
+    void rejectsTruncatedMessages(){
+        for(Message message: messages()){
+            byte[] encoded = encode(message);
+            for(int length = 0; length < encoded.length; length++){
+                ByteBuffer truncated = ByteBuffer.wrap(encoded, 0, length);
+                assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(truncated),
+                        message.messageType + " of " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void rejectsNegativeLengthOfString(){
+        ByteBuffer buf = header(MessageType.JOIN);
+        buf.put((byte) PlayerType.HUMAN.ordinal());
+        buf.put((byte) 0);
+        MessageCodec.putVarInt(buf, -1);
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsLengthOfStringBeyondMessage(){
+        ByteBuffer buf = header(MessageType.ERROR);
+        MessageCodec.putVarInt(buf, Integer.MAX_VALUE);
+        buf.put((byte) 'a');
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsHugeNumberOfPlayers(){
+        ByteBuffer buf = header(MessageType.ANNOUNCEGAME);
+        MessageCodec.putVarInt(buf, Integer.MAX_VALUE);
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsNegativeNumberOfPlayers(){
+        ByteBuffer buf = header(MessageType.ANNOUNCEGAME);
+        MessageCodec.putVarInt(buf, -1);
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsHugeNumberOfPlayersInState(){
+        ByteBuffer buf = header(MessageType.SENDSTATE);
+        MessageCodec.putConfig(buf, new GameConfig());
+        MessageCodec.putVarInt(buf, 1);
+        MessageCodec.putVarInt(buf, Integer.MAX_VALUE);
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsDeltaWithMoreChangesThanKept(){
+        ByteBuffer buf = header(MessageType.SENDSTATEDELTA);
+        MessageCodec.putVarInt(buf, 0);
+        MessageCodec.putVarInt(buf, Integer.MAX_VALUE);
+        MessageCodec.putVarInt(buf, Integer.MAX_VALUE);
+        assertThrows(StreamCorruptedException.class, () -> decode(buf));
+    }
+
+    @Test
+    void rejectsDeltaWithNegativeCounts(){
+        for(int field = 0; field < 3; field++){
+            ByteBuffer buf = header(MessageType.SENDSTATEDELTA);
+            MessageCodec.putVarInt(buf, 0);
+            MessageCodec.putVarInt(buf, 0);
+            for(int i = 0; i <= field; i++){
+                MessageCodec.putVarInt(buf, i == field ? -1 : 0);
+            }
+            buf.put(new byte[8]);
+            assertThrows(StreamCorruptedException.class, () -> decode(buf), "count " + field);
+        }
+    }
+
+    @Test
+    void rejectsOrDecodesDamagedMessages(){
+        Random rand = new Random(1);
+        for(Message message: messages()){
+            byte[] encoded = encode(message);
+            for(int attempt = 0; attempt < 2000; attempt++){
+                byte[] damaged = encoded.clone();
+                for(int i = rand.nextInt(4); i >= 0; i--){
+                    damaged[rand.nextInt(damaged.length)] = (byte) rand.nextInt(256);
+                }
+                try {
+                    MessageCodec.decode(ByteBuffer.wrap(damaged));
+                } catch (StreamCorruptedException ignored) {}
+            }
+        }
+    }
+
+    @Test
+    void rejectsUnknownEnumOrdinals(){
+        ByteBuffer steer = header(MessageType.STEER);
+        steer.put((byte) 100);
+        assertThrows(StreamCorruptedException.class, () -> decode(steer));
+
+        ByteBuffer type = ByteBuffer.allocate(8);
+        type.put((byte) -1);
+        assertThrows(StreamCorruptedException.class, () -> decode(type));
+    }
+}